@@ -0,0 +1,41 @@
+package org.tyoda.wurmunlimited.mods.CommonLibrary;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks breaking values from a few irons up to hundreds of golds down into coins.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CoinBenchmark {
+    @Param({"99", "123456", "123456789", "2000000000"})
+    public int moneyPool;
+
+    private final int[] counts = new int[LootTable.coinDenominations];
+
+    @Benchmark
+    public ArrayList<Integer> generateCoins(){
+        return LootTable.generateCoins(moneyPool);
+    }
+
+    @Benchmark
+    public int[] countCoins(){
+        return LootTable.countCoins(moneyPool, counts);
+    }
+}
@@ -0,0 +1,71 @@
+package org.tyoda.wurmunlimited.mods.CommonLibrary;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks LootTable.getLoot across table sizes and budgets.
+ * The groups weigh 1 to groups, with eight items each.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LootTableBenchmark {
+    @Param({"4", "32", "256"})
+    public int groups;
+
+    @Param({"10", "1000", "100000"})
+    public int maxWeight;
+
+    private LootTable lootTable;
+    private LootTable weightedLootTable;
+    private final IntList loot = new IntList();
+    private final RandomSource random = RandomSource.seeded(1);
+
+    @Setup
+    public void setup(){
+        int[] weights = new int[groups];
+        float[] chances = new float[groups];
+        int[][] templateIds = new int[groups][8];
+        for(int i = 0; i < groups; ++i){
+            weights[i] = i + 1;
+            chances[i] = groups - i;
+            for(int j = 0; j < 8; ++j)
+                templateIds[i][j] = i * 8 + j;
+        }
+        lootTable = new LootTable(weights, templateIds);
+        weightedLootTable = new LootTable(LootSampler.weighted(weights, chances, templateIds));
+    }
+
+    @Benchmark
+    public ArrayList<Integer> getLoot(){
+        return lootTable.getLoot(maxWeight, random);
+    }
+
+    @Benchmark
+    public int getLootIntoIntList(){
+        loot.clear();
+        return lootTable.getLoot(maxWeight, loot, random);
+    }
+
+    @Benchmark
+    public int getLootWeighted(){
+        loot.clear();
+        return weightedLootTable.getLoot(maxWeight, loot, random);
+    }
+}
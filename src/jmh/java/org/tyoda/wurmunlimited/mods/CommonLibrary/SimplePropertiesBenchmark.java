@@ -0,0 +1,81 @@
+package org.tyoda.wurmunlimited.mods.CommonLibrary;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the typed and array getters of SimpleProperties.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimplePropertiesBenchmark {
+    @Param({"10", "1000"})
+    public int arrayLength;
+
+    private SimpleProperties properties;
+
+    @Setup
+    public void setup(){
+        properties = new SimpleProperties();
+        properties.setProperty("int", "123456");
+        properties.setProperty("float", "0.0001");
+        properties.setProperty("boolean", "true");
+        StringBuilder ints = new StringBuilder();
+        StringBuilder floats = new StringBuilder();
+        for(int i = 0; i < arrayLength; ++i){
+            if(i > 0){
+                ints.append(',');
+                floats.append(',');
+            }
+            ints.append(i * 37);
+            floats.append(i * 0.25f);
+        }
+        properties.setProperty("ints", ints.toString());
+        properties.setProperty("floats", floats.toString());
+    }
+
+    @Benchmark
+    public int getInt(){
+        return properties.getInt("int", 0);
+    }
+
+    @Benchmark
+    public float getFloat(){
+        return properties.getFloat("float", 0);
+    }
+
+    @Benchmark
+    public boolean getBoolean(){
+        return properties.getBoolean("boolean", false);
+    }
+
+    @Benchmark
+    public int getMissingInt(){
+        return properties.getInt("missing", 0);
+    }
+
+    @Benchmark
+    public int[] getIntArray(){
+        return properties.getIntArray("ints", null);
+    }
+
+    @Benchmark
+    public float[] getFloatArray(){
+        return properties.getFloatArray("floats", null);
+    }
+}
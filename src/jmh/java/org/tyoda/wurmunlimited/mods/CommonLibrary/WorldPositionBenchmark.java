@@ -0,0 +1,75 @@
+package org.tyoda.wurmunlimited.mods.CommonLibrary;
+
+import com.wurmonline.mesh.MeshIO;
+import com.wurmonline.mesh.Tiles;
+import com.wurmonline.server.Server;
+import com.wurmonline.server.zones.Zones;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks WorldPosition2D.getRandomPos against a generated surface mesh
+ * instead of a live server. The map is a grass island in water, and waterPercent
+ * sets roughly what portion of the map is under water.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WorldPositionBenchmark {
+    @Param({"10", "50", "90"})
+    public int waterPercent;
+
+    private File mapFile;
+    private final RandomSource random = RandomSource.seeded(1);
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        int size = Zones.worldTileSizeX;
+        int level = Integer.numberOfTrailingZeros(size);
+        // A circle covering (100 - waterPercent)% of the map is land, the rest is water
+        double landRadius = Math.sqrt((100 - waterPercent) / 100.0 * size * size / Math.PI);
+        int[][] tiles = new int[size][size];
+        for(int x = 0; x < size; ++x){
+            for(int y = 0; y < size; ++y){
+                double distance = Math.hypot(x - size / 2.0, y - size / 2.0);
+                boolean land = distance < landRadius;
+                tiles[x][y] = encode(land ? Tiles.Tile.TILE_GRASS.id : Tiles.Tile.TILE_DIRT.id,
+                        (short)(land ? 100 : -100));
+            }
+        }
+        mapFile = File.createTempFile("benchmark_top_layer", ".map");
+        Server.surfaceMesh = MeshIO.createMap(mapFile.getAbsolutePath(), level, tiles);
+    }
+
+    private static int encode(byte type, short height){
+        return (type & 0xFF) << 24 | (height & 0xFFFF);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(){
+        if(!mapFile.delete()) mapFile.deleteOnExit();
+    }
+
+    @Benchmark
+    public WorldPosition2D getRandomPos(){
+        return WorldPosition2D.getRandomPos(200, 500, random);
+    }
+}
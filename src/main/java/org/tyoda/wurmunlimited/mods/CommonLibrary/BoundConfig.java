@@ -0,0 +1,96 @@
+package org.tyoda.wurmunlimited.mods.CommonLibrary;
+
+import java.io.Closeable;
+
+import static org.tyoda.wurmunlimited.mods.CommonLibrary.CommonLibrary.logger;
+
+/**
+ * Holds the current config object bound from a SimpleProperties. rebind() fills a new
+ * object and then swaps it in, so readers always see either the old or the new object,
+ * never one half filled. Fetch it with get() once per use and read the fields from it:
+ * <pre>
+ * BoundConfig&lt;GoblinConfig&gt; config = BoundConfig.of(GoblinConfig.class, properties, "goblin");
+ * float rareChance = config.get().rareChance;
+ * </pre>
+ * If the properties are a ReloadableProperties, the object is bound again after every reload
+ * until close() is called. A reload with a value that cannot be parsed keeps the old object.
+ * @param <T> The type of the config objects
+ */
+public final class BoundConfig<T> implements Closeable {
+    private final ConfigBinder<T> binder;
+    private final SimpleProperties properties;
+    private final String section;
+    private final Runnable reloadListener;
+    private volatile T current;
+
+    /**
+     * Binds the config object, and binds it again on every reload if the properties are reloadable.
+     * @param binder The binder of the config class
+     * @param properties The properties to read
+     * @param section The prefix of the keys, without the dot. Empty for no prefix.
+     * @throws IllegalArgumentException If a value cannot be parsed into the type of its field
+     */
+    public BoundConfig(ConfigBinder<T> binder, SimpleProperties properties, String section){
+        this.binder = binder;
+        this.properties = properties;
+        this.section = section;
+        current = binder.bind(properties, section);
+        if(properties instanceof ReloadableProperties){
+            reloadListener = () -> {
+                try{
+                    rebind();
+                }catch(IllegalArgumentException e){
+                    logger.severe("Keeping the old " + binder.getType().getSimpleName() + ": " + e.getMessage());
+                }
+            };
+            ((ReloadableProperties)properties).addReloadListener(reloadListener);
+        }else{
+            reloadListener = null;
+        }
+    }
+
+    /**
+     * Binds an object of the config class from the properties.
+     * @param type The config class
+     * @param properties The properties to read
+     * @param section The prefix of the keys, without the dot. Empty for no prefix.
+     */
+    public static <T> BoundConfig<T> of(Class<T> type, SimpleProperties properties, String section){
+        return new BoundConfig<>(new ConfigBinder<>(type), properties, section);
+    }
+
+    /**
+     * Binds an object of the config class from the properties.
+     * @param type The config class
+     * @param properties The properties to read
+     */
+    public static <T> BoundConfig<T> of(Class<T> type, SimpleProperties properties){
+        return of(type, properties, "");
+    }
+
+    /**
+     * Returns the current config object. It must not be modified.
+     */
+    public T get(){
+        return current;
+    }
+
+    /**
+     * Fills a new config object from the current values of the properties and swaps it in.
+     * @return The new config object
+     * @throws IllegalArgumentException If a value cannot be parsed. The old object is kept then.
+     */
+    public synchronized T rebind(){
+        T rebound = binder.bind(properties, section);
+        current = rebound;
+        return rebound;
+    }
+
+    /**
+     * Stops binding again on reload. The current object is kept.
+     */
+    @Override
+    public void close(){
+        if(reloadListener != null) ((ReloadableProperties)properties).removeReloadListener(reloadListener);
+    }
+}
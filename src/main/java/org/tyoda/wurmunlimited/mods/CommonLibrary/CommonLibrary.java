@@ -6,8 +6,21 @@ import java.util.Random;
 import java.util.logging.Logger;
 
 public class CommonLibrary implements WurmServerMod {
+    /**
+     * @deprecated Every roll on this Random contends for the same seed, use randomSource instead.
+     */
+    @Deprecated
     public static final Random random = new Random();
+    /**
+     * The RandomSource used when one is not supplied. Every thread rolls with its own generator.
+     */
+    public static final RandomSource randomSource = RandomSource.threadLocal();
     public static final Logger logger = Logger.getLogger(CommonLibrary.class.getName());
+    /**
+     * The counters and histograms of this library, like "loot.items" or "randomPos.nanos".
+     * See MetricsRegistry.startDumping() for writing them out periodically.
+     */
+    public static final MetricsRegistry metrics = new MetricsRegistry();
     public static final String version = "0.1.1";
     @Override
     public String getVersion() {
@@ -0,0 +1,178 @@
+package org.tyoda.wurmunlimited.mods.CommonLibrary;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+
+/**
+ * Fills plain config objects from a SimpleProperties. Every field of the config class
+ * annotated with ConfigKey is read from the property with that key.
+ * The fields and how to parse them are resolved once, when the ConfigBinder is made,
+ * and the fields are set through MethodHandles. After binding, the values are read
+ * from the fields of the config object, without any lookups or parsing.
+ * <pre>
+ * public class GoblinConfig {
+ *     &#64;ConfigKey("rareChance") public float rareChance = 0.01f;
+ *     &#64;ConfigKey(value = "lootIds", def = "50-61") public int[] lootIds;
+ * }
+ * GoblinConfig config = new ConfigBinder&lt;&gt;(GoblinConfig.class).bind(properties, "goblin");
+ * </pre>
+ * @param <T> The type of the config objects
+ */
+public final class ConfigBinder<T> {
+    /**
+     * Parses the value of a property into the type of a field
+     */
+    @FunctionalInterface
+    private interface Parser {
+        Object parse(String value, String delimiter);
+    }
+
+    /**
+     * Everything needed to fill one field, resolved once
+     */
+    private static final class Binding {
+        final String key;
+        final String def;
+        final String delimiter;
+        final Parser parser;
+        /**
+         * (Object instance, Object value)void
+         */
+        final MethodHandle setter;
+
+        Binding(String key, String def, String delimiter, Parser parser, MethodHandle setter){
+            this.key = key;
+            this.def = def;
+            this.delimiter = delimiter;
+            this.parser = parser;
+            this.setter = setter;
+        }
+    }
+
+    private final Class<T> type;
+    /**
+     * ()Object, creates a config object with its initial values
+     */
+    private final MethodHandle constructor;
+    private final Binding[] bindings;
+
+    /**
+     * Resolves the annotated fields of the config class.
+     * @param type The config class. It needs a constructor without parameters.
+     * @throws IllegalArgumentException If the class has no such constructor, or an
+     *                                  annotated field is final, static or of an unsupported type
+     */
+    public ConfigBinder(Class<T> type){
+        this.type = type;
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try{
+            Constructor<T> declared = type.getDeclaredConstructor();
+            declared.setAccessible(true);
+            constructor = lookup.unreflectConstructor(declared).asType(MethodType.methodType(Object.class));
+        }catch(NoSuchMethodException | IllegalAccessException | RuntimeException e){
+            throw new IllegalArgumentException(type.getName() + " needs an accessible constructor without parameters.", e);
+        }
+
+        ArrayList<Binding> resolved = new ArrayList<>();
+        for(Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()){
+            for(Field field : c.getDeclaredFields()){
+                ConfigKey configKey = field.getAnnotation(ConfigKey.class);
+                if(configKey == null) continue;
+                String name = c.getName() + "." + field.getName();
+                if(Modifier.isFinal(field.getModifiers()) || Modifier.isStatic(field.getModifiers())) {
+                    throw new IllegalArgumentException(name + " must not be final or static.");
+                }
+                Parser parser = parserFor(field.getType());
+                if(parser == null) {
+                    throw new IllegalArgumentException(name + " has a type SimpleProperties cannot read: " + field.getType().getName());
+                }
+                MethodHandle setter;
+                try{
+                    field.setAccessible(true);
+                    setter = lookup.unreflectSetter(field)
+                            .asType(MethodType.methodType(void.class, Object.class, Object.class));
+                }catch(IllegalAccessException | RuntimeException e){
+                    throw new IllegalArgumentException(name + " cannot be set.", e);
+                }
+                resolved.add(new Binding(configKey.value(), configKey.def().isEmpty() ? null : configKey.def(),
+                        configKey.delimiter().isEmpty() ? null : configKey.delimiter(), parser, setter));
+            }
+        }
+        bindings = resolved.toArray(new Binding[0]);
+    }
+
+    private static Parser parserFor(Class<?> fieldType){
+        if(fieldType == boolean.class) return (v, d) -> Boolean.parseBoolean(v.trim());
+        if(fieldType == byte.class) return (v, d) -> Byte.parseByte(v.trim());
+        if(fieldType == short.class) return (v, d) -> Short.parseShort(v.trim());
+        if(fieldType == int.class) return (v, d) -> Integer.parseInt(v.trim());
+        if(fieldType == long.class) return (v, d) -> Long.parseLong(v.trim());
+        if(fieldType == float.class) return (v, d) -> Float.parseFloat(v.trim());
+        if(fieldType == String.class) return (v, d) -> v;
+        if(fieldType == boolean[].class) return SimpleProperties::parseBooleanArray;
+        if(fieldType == byte[].class) return SimpleProperties::parseByteArray;
+        if(fieldType == short[].class) return SimpleProperties::parseShortArray;
+        if(fieldType == int[].class) return SimpleProperties::parseIntArray;
+        if(fieldType == long[].class) return SimpleProperties::parseLongArray;
+        if(fieldType == float[].class) return SimpleProperties::parseFloatArray;
+        if(fieldType == String[].class) return SimpleProperties::parseStringArray;
+        return null;
+    }
+
+    public Class<T> getType(){
+        return type;
+    }
+
+    /**
+     * Creates a config object filled from the properties.
+     * @param properties The properties to read
+     * @return A new config object
+     * @throws IllegalArgumentException If a value cannot be parsed into the type of its field
+     */
+    public T bind(SimpleProperties properties){
+        return bind(properties, "");
+    }
+
+    /**
+     * Creates a config object filled from a section of the properties.
+     * All values are read from the same snapshot, so a reload in the middle
+     * of binding cannot mix old and new values.
+     * @param properties The properties to read
+     * @param section The prefix of the keys, without the dot. Empty for no prefix.
+     * @return A new config object
+     * @throws IllegalArgumentException If a value cannot be parsed into the type of its field
+     */
+    public T bind(SimpleProperties properties, String section){
+        PropertiesSnapshot snapshot = properties.snapshot();
+        String prefix = section.isEmpty() ? "" : section + ".";
+        Object config;
+        try{
+            config = constructor.invokeExact();
+        }catch(Throwable t){
+            throw new IllegalStateException("Could not create " + type.getName(), t);
+        }
+        for(Binding binding : bindings){
+            String key = prefix + binding.key;
+            String value = snapshot.getString(key, binding.def);
+            if(value == null) continue;
+            Object parsed;
+            try{
+                parsed = binding.parser.parse(value,
+                        binding.delimiter == null ? snapshot.getDefaultDelimiter() : binding.delimiter);
+            }catch(RuntimeException e){
+                throw new IllegalArgumentException("Invalid value for " + key + ": \"" + value + "\"", e);
+            }
+            try{
+                binding.setter.invokeExact(config, parsed);
+            }catch(Throwable t){
+                throw new IllegalStateException("Could not set the field for " + key, t);
+            }
+        }
+        return type.cast(config);
+    }
+}
@@ -0,0 +1,31 @@
+package org.tyoda.wurmunlimited.mods.CommonLibrary;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a field of a config class to be filled by ConfigBinder from the property with this key.
+ * The field may be any type SimpleProperties has a getter for, and must not be final or static.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface ConfigKey {
+    /**
+     * The property key, after the section prefix if there is one
+     */
+    String value();
+
+    /**
+     * The value used if the key is not present, written the same way as in the properties file.
+     * If empty, the field keeps the value it is initialized to.
+     */
+    String def() default "";
+
+    /**
+     * The string the values of an array are separated by.
+     * If empty, the default delimiter of the properties is used.
+     */
+    String delimiter() default "";
+}
@@ -0,0 +1,355 @@
+package org.tyoda.wurmunlimited.mods.CommonLibrary;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Parses delimited lists of values straight from the characters of the
+ * string into the target array, in a single pass and without regular expressions.
+ * The delimiter is matched literally, unless it is a regular expression, see isRegex(). Whitespace around values is ignored, and
+ * empty values at the end of the list are dropped, like String.split() does.
+ * Whole number lists may contain inclusive ranges, so 1,5-8 is 1,5,6,7,8.
+ */
+final class DelimitedParser {
+    /**
+     * The largest power of ten that, like every smaller one, is exactly representable as a float
+     */
+    private static final int maxExactFloatPower = 10;
+    /**
+     * The characters that make a delimiter a regular expression, see isRegex()
+     */
+    private static final String regexCharacters = "\\^$.|?*+()[]{}";
+    private static final float[] floatPowersOfTen = {1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+
+    private DelimitedParser(){}
+
+    static byte[] parseBytes(String value, String delimiter){
+        int[] ints = parseInts(value, delimiter, Byte.MIN_VALUE, Byte.MAX_VALUE);
+        byte[] arr = new byte[ints.length];
+        for(int i = 0; i < arr.length; ++i)
+            arr[i] = (byte)ints[i];
+        return arr;
+    }
+
+    static short[] parseShorts(String value, String delimiter){
+        int[] ints = parseInts(value, delimiter, Short.MIN_VALUE, Short.MAX_VALUE);
+        short[] arr = new short[ints.length];
+        for(int i = 0; i < arr.length; ++i)
+            arr[i] = (short)ints[i];
+        return arr;
+    }
+
+    static int[] parseInts(String value, String delimiter){
+        return parseInts(value, delimiter, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    private static int[] parseInts(String value, String delimiter, int min, int max){
+        if(isRegex(delimiter)) {
+            String[] strings = value.split(delimiter);
+            int[] arr = new int[strings.length];
+            for(int i = 0; i < arr.length; ++i){
+                arr[i] = Integer.parseInt(strings[i]);
+                if(arr[i] < min || arr[i] > max) {
+                    throw new NumberFormatException("Value out of range. Value:\"" + strings[i] + "\"");
+                }
+            }
+            return arr;
+        }
+        int end = trimmedEnd(value, delimiter);
+        int values = countValues(value, delimiter, end);
+        int[] arr = new int[values];
+        int count = 0;
+        int start = 0;
+        while(start < end){
+            int stop = next(value, delimiter, start, end);
+            int from = skipWhitespace(value, start, stop);
+            int to = trimEnd(value, from, stop);
+            int dash = rangeDash(value, from, to);
+            --values;
+            if(dash < 0){
+                arr[count++] = (int)parseLong(value, from, to, min, max);
+            }else{
+                long low = parseLong(value, from, trimEnd(value, from, dash), min, max);
+                long high = parseLong(value, skipWhitespace(value, dash + 1, to), to, min, max);
+                long size = rangeSize(value, from, to, low, high);
+                // The array always has room for one item per value left, a range may need more
+                long needed = count + size + values;
+                if(needed > arr.length) arr = Arrays.copyOf(arr, grownLength(value, from, to, arr.length, needed));
+                for(long i = 0; i < size; ++i)
+                    arr[count++] = (int)(low + i);
+            }
+            start = stop + delimiter.length();
+        }
+        return count == arr.length ? arr : Arrays.copyOf(arr, count);
+    }
+
+    static long[] parseLongs(String value, String delimiter){
+        if(isRegex(delimiter)) {
+            String[] strings = value.split(delimiter);
+            long[] arr = new long[strings.length];
+            for(int i = 0; i < arr.length; ++i)
+                arr[i] = Long.parseLong(strings[i]);
+            return arr;
+        }
+        int end = trimmedEnd(value, delimiter);
+        int values = countValues(value, delimiter, end);
+        long[] arr = new long[values];
+        int count = 0;
+        int start = 0;
+        while(start < end){
+            int stop = next(value, delimiter, start, end);
+            int from = skipWhitespace(value, start, stop);
+            int to = trimEnd(value, from, stop);
+            int dash = rangeDash(value, from, to);
+            --values;
+            if(dash < 0){
+                arr[count++] = parseLong(value, from, to, Long.MIN_VALUE, Long.MAX_VALUE);
+            }else{
+                long low = parseLong(value, from, trimEnd(value, from, dash), Long.MIN_VALUE, Long.MAX_VALUE);
+                long high = parseLong(value, skipWhitespace(value, dash + 1, to), to, Long.MIN_VALUE, Long.MAX_VALUE);
+                long size = rangeSize(value, from, to, low, high);
+                long needed = count + size + values;
+                if(needed > arr.length) arr = Arrays.copyOf(arr, grownLength(value, from, to, arr.length, needed));
+                for(long i = 0; i < size; ++i)
+                    arr[count++] = low + i;
+            }
+            start = stop + delimiter.length();
+        }
+        return count == arr.length ? arr : Arrays.copyOf(arr, count);
+    }
+
+    static float[] parseFloats(String value, String delimiter){
+        if(isRegex(delimiter)) {
+            String[] strings = value.split(delimiter);
+            float[] arr = new float[strings.length];
+            for(int i = 0; i < arr.length; ++i)
+                arr[i] = Float.parseFloat(strings[i]);
+            return arr;
+        }
+        int end = trimmedEnd(value, delimiter);
+        float[] arr = new float[countValues(value, delimiter, end)];
+        int count = 0;
+        int start = 0;
+        while(start < end){
+            int stop = next(value, delimiter, start, end);
+            int from = skipWhitespace(value, start, stop);
+            arr[count++] = parseFloat(value, from, trimEnd(value, from, stop));
+            start = stop + delimiter.length();
+        }
+        return arr;
+    }
+
+    static boolean[] parseBooleans(String value, String delimiter){
+        if(isRegex(delimiter)) {
+            String[] strings = value.split(delimiter);
+            boolean[] arr = new boolean[strings.length];
+            for(int i = 0; i < arr.length; ++i)
+                arr[i] = Boolean.parseBoolean(strings[i]);
+            return arr;
+        }
+        int end = trimmedEnd(value, delimiter);
+        boolean[] arr = new boolean[countValues(value, delimiter, end)];
+        int count = 0;
+        int start = 0;
+        while(start < end){
+            int stop = next(value, delimiter, start, end);
+            int from = skipWhitespace(value, start, stop);
+            int to = trimEnd(value, from, stop);
+            arr[count++] = to - from == 4 && value.regionMatches(true, from, "true", 0, 4);
+            start = stop + delimiter.length();
+        }
+        return arr;
+    }
+
+    /**
+     * Splits the string at every occurrence of the delimiter. Unlike the other
+     * methods, whitespace is kept, but empty strings at the end are still dropped.
+     */
+    static String[] parseStrings(String value, String delimiter){
+        if(isRegex(delimiter)) return value.split(delimiter);
+        checkDelimiter(delimiter);
+        ArrayList<String> strings = new ArrayList<>();
+        int start = 0;
+        int stop;
+        while((stop = value.indexOf(delimiter, start)) >= 0){
+            strings.add(value.substring(start, stop));
+            start = stop + delimiter.length();
+        }
+        strings.add(value.substring(start));
+        int size = strings.size();
+        while(size > 0 && strings.get(size - 1).isEmpty()) --size;
+        return strings.subList(0, size).toArray(new String[0]);
+    }
+
+    /**
+     * Returns whether the delimiter contains characters that have a meaning in regular expressions.
+     * Such delimiters are split on as a regular expression, like they always were,
+     * and the values are parsed as they were then, without ranges or ignoring whitespace.
+     * Any other delimiter matches the same whether it is taken literally or as a regular expression.
+     */
+    static boolean isRegex(String delimiter){
+        for(int i = 0; i < delimiter.length(); ++i){
+            if(regexCharacters.indexOf(delimiter.charAt(i)) >= 0) return true;
+        }
+        return false;
+    }
+
+    private static void checkDelimiter(String delimiter){
+        if(delimiter.isEmpty()) {
+            throw new IllegalArgumentException("delimiter must not be empty.");
+        }
+    }
+
+    /**
+     * Returns the end of the last value that is not empty or whitespace
+     */
+    private static int trimmedEnd(String value, String delimiter){
+        checkDelimiter(delimiter);
+        int end = value.length();
+        while(true){
+            int last = value.lastIndexOf(delimiter, end - delimiter.length());
+            int valueStart = last < 0 ? 0 : last + delimiter.length();
+            if(skipWhitespace(value, valueStart, end) < end) return end;
+            if(last < 0) return 0;
+            end = last;
+        }
+    }
+
+    /**
+     * Returns the number of values before end, not counting the extra values of ranges
+     */
+    private static int countValues(String value, String delimiter, int end){
+        if(end == 0) return 0;
+        int count = 1;
+        int index = 0;
+        while((index = value.indexOf(delimiter, index)) >= 0 && index < end){
+            ++count;
+            index += delimiter.length();
+        }
+        return count;
+    }
+
+    private static int next(String value, String delimiter, int start, int end){
+        int stop = value.indexOf(delimiter, start);
+        return stop < 0 || stop > end ? end : stop;
+    }
+
+    private static int skipWhitespace(String value, int from, int to){
+        while(from < to && value.charAt(from) <= ' ') ++from;
+        return from;
+    }
+
+    private static int trimEnd(String value, int from, int to){
+        while(to > from && value.charAt(to - 1) <= ' ') --to;
+        return to;
+    }
+
+    /**
+     * Returns the index of the dash separating the two ends of a range, or -1 if the value is
+     * not a range. The dash must follow a digit, so a leading minus sign is not mistaken for it.
+     */
+    private static int rangeDash(String value, int from, int to){
+        for(int i = from + 1; i < to; ++i){
+            if(value.charAt(i) != '-') continue;
+            int before = trimEnd(value, from, i);
+            if(before > from && Character.isDigit(value.charAt(before - 1))) return i;
+        }
+        return -1;
+    }
+
+    private static long rangeSize(String value, int from, int to, long low, long high){
+        if(high < low) {
+            throw new NumberFormatException("Range must not be descending: \"" + value.substring(from, to) + "\"");
+        }
+        long size = high - low + 1;
+        if(size <= 0 || size > Integer.MAX_VALUE) {
+            throw new NumberFormatException("Range is too large: \"" + value.substring(from, to) + "\"");
+        }
+        return size;
+    }
+
+    /**
+     * Returns the length to grow the array to so it has room for the needed items.
+     * It at least doubles, so expanding many ranges only copies the array a few times.
+     */
+    private static int grownLength(String value, int from, int to, int length, long needed){
+        if(needed > Integer.MAX_VALUE - 8) {
+            throw new NumberFormatException("Range is too large: \"" + value.substring(from, to) + "\"");
+        }
+        return (int)Math.max(needed, Math.min(2L * length, Integer.MAX_VALUE - 8));
+    }
+
+    /**
+     * Parses a whole number like Long.parseLong(value.substring(from, to)),
+     * and checks that it is between min and max.
+     */
+    private static long parseLong(String value, int from, int to, long min, long max){
+        if(from >= to) throw numberFormat(value, from, to);
+        boolean negative = false;
+        int i = from;
+        char first = value.charAt(i);
+        if(first == '-' || first == '+'){
+            negative = first == '-';
+            if(++i == to) throw numberFormat(value, from, to);
+        }
+        // Accumulate negatively, as the negative range is one larger
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long multiplyLimit = limit / 10;
+        long result = 0;
+        for(; i < to; ++i){
+            int digit = Character.digit(value.charAt(i), 10);
+            if(digit < 0 || result < multiplyLimit) throw numberFormat(value, from, to);
+            result *= 10;
+            if(result < limit + digit) throw numberFormat(value, from, to);
+            result -= digit;
+        }
+        long parsed = negative ? result : -result;
+        if(parsed < min || parsed > max) {
+            throw new NumberFormatException("Value out of range. Value:\"" + value.substring(from, to) + "\"");
+        }
+        return parsed;
+    }
+
+    /**
+     * Parses a float like Float.parseFloat(value.substring(from, to)). Plain decimals with
+     * few enough digits are parsed without creating a string: when the digits and the power
+     * of ten are both exact floats, a single float division rounds correctly.
+     * Everything else falls back to Float.parseFloat.
+     */
+    private static float parseFloat(String value, int from, int to){
+        int i = from;
+        boolean negative = false;
+        if(i < to && (value.charAt(i) == '-' || value.charAt(i) == '+')){
+            negative = value.charAt(i) == '-';
+            ++i;
+        }
+        int mantissa = 0;
+        int digits = 0;
+        int decimals = -1;
+        for(; i < to; ++i){
+            char c = value.charAt(i);
+            if(c == '.' && decimals < 0){
+                decimals = 0;
+                continue;
+            }
+            if(c < '0' || c > '9') break;
+            // Stay below 2^24, where every whole number is still an exact float
+            if(mantissa > ((1 << 24) - 10) / 10) {
+                digits = -1;
+                break;
+            }
+            mantissa = mantissa * 10 + (c - '0');
+            ++digits;
+            if(decimals >= 0) ++decimals;
+        }
+        if(i == to && digits > 0 && decimals <= maxExactFloatPower){
+            float result = decimals <= 0 ? mantissa : mantissa / floatPowersOfTen[decimals];
+            return negative ? -result : result;
+        }
+        return Float.parseFloat(value.substring(from, to));
+    }
+
+    private static NumberFormatException numberFormat(String value, int from, int to){
+        return new NumberFormatException("For input string: \"" + value.substring(from, to) + "\"");
+    }
+}
@@ -0,0 +1,142 @@
+package org.tyoda.wurmunlimited.mods.CommonLibrary;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A growable list of primitive ints. Meant to be kept and reused with clear(),
+ * so that filling it does not allocate once it has grown large enough.
+ */
+public final class IntList {
+    private int[] data;
+    private int size = 0;
+
+    /**
+     * Initializes an empty IntList
+     */
+    public IntList(){
+        this(16);
+    }
+
+    /**
+     * Initializes an empty IntList
+     * @param capacity The number of elements it can hold before growing
+     */
+    public IntList(int capacity){
+        if(capacity < 0) {
+            throw new IllegalArgumentException("capacity must not be negative.");
+        }
+        data = new int[capacity];
+    }
+
+    /**
+     * Appends a value to the end of the list
+     * @param value The value to append
+     */
+    public void add(int value){
+        if(size == data.length) grow(size + 1);
+        data[size++] = value;
+    }
+
+    /**
+     * Appends a range of an array to the end of the list
+     * @param values The array holding the values
+     * @param from The index of the first value, inclusive
+     * @param to The index of the last value, exclusive
+     */
+    public void addAll(int[] values, int from, int to){
+        int count = to - from;
+        ensureCapacity(size + count);
+        System.arraycopy(values, from, data, size, count);
+        size += count;
+    }
+
+    /**
+     * Returns the value at the index
+     * @param index The index of the value
+     */
+    public int get(int index){
+        if(index >= size) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        return data[index];
+    }
+
+    /**
+     * Sets the value at the index
+     * @param index The index of the value
+     * @param value The new value
+     */
+    public void set(int index, int value){
+        if(index >= size) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        data[index] = value;
+    }
+
+    /**
+     * Returns the number of values in the list
+     */
+    public int size(){
+        return size;
+    }
+
+    /**
+     * Returns whether the list has no values
+     */
+    public boolean isEmpty(){
+        return size == 0;
+    }
+
+    /**
+     * Removes all values from the list, keeping its capacity
+     */
+    public void clear(){
+        size = 0;
+    }
+
+    /**
+     * Makes sure the list can hold at least capacity values without growing
+     * @param capacity The number of values
+     */
+    public void ensureCapacity(int capacity){
+        if(capacity > data.length) grow(capacity);
+    }
+
+    private void grow(int minCapacity){
+        int capacity = Math.max(minCapacity, data.length + (data.length >> 1) + 1);
+        data = Arrays.copyOf(data, capacity);
+    }
+
+    /**
+     * Returns a new array containing the values of the list
+     */
+    public int[] toArray(){
+        return Arrays.copyOf(data, size);
+    }
+
+    /**
+     * Copies the values of the list into an array
+     * @param dest The array the values are copied to
+     * @param offset The index of dest the first value is copied to
+     */
+    public void copyTo(int[] dest, int offset){
+        System.arraycopy(data, 0, dest, offset, size);
+    }
+
+    /**
+     * Returns a new ArrayList containing the values of the list
+     */
+    public ArrayList<Integer> toArrayList(){
+        ArrayList<Integer> list = new ArrayList<>(size);
+        for(int i = 0; i < size; ++i)
+            list.add(data[i]);
+        return list;
+    }
+
+    @Override
+    public String toString(){
+        StringBuilder sb = new StringBuilder("[");
+        for(int i = 0; i < size; ++i){
+            if(i > 0) sb.append(", ");
+            sb.append(data[i]);
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -0,0 +1,50 @@
+package org.tyoda.wurmunlimited.mods.CommonLibrary;
+
+/**
+ * The Template IDs, qualities and rarities of items that are rolled but not created yet,
+ * see LootTable.rollItems(). Rolling only uses the RandomSource, so it may be done on any
+ * thread, but the items have to be created with LootTable.createItems(ItemRolls) on the
+ * server thread, as creating items is not thread safe.
+ */
+public final class ItemRolls {
+    private final int[] templateIds;
+    private final float[] qualities;
+    private final byte[] rarities;
+
+    ItemRolls(int[] templateIds, float[] qualities, byte[] rarities){
+        this.templateIds = templateIds;
+        this.qualities = qualities;
+        this.rarities = rarities;
+    }
+
+    /**
+     * Returns the number of items rolled
+     */
+    public int getCount(){
+        return templateIds.length;
+    }
+
+    /**
+     * Returns the Template ID of an item
+     * @param index The index of the item
+     */
+    public int getTemplateId(int index){
+        return templateIds[index];
+    }
+
+    /**
+     * Returns the quality of an item
+     * @param index The index of the item
+     */
+    public float getQuality(int index){
+        return qualities[index];
+    }
+
+    /**
+     * Returns the rarity of an item, between 0 and 3 (inclusive)
+     * @param index The index of the item
+     */
+    public byte getRarity(int index){
+        return rarities[index];
+    }
+}
@@ -0,0 +1,171 @@
+package org.tyoda.wurmunlimited.mods.CommonLibrary;
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The result of rolling a loot table many times. The Template IDs of all
+ * rolls are stored one roll after the other in a single int array.
+ */
+public final class LootBatch {
+    /**
+     * The number of rolls done with one RandomSource by one task
+     */
+    static final int rollsPerChunk = 1024;
+
+    private final int[] templateIds;
+    /**
+     * The items of roll i are templateIds[offsets[i]] to templateIds[offsets[i+1]-1]
+     */
+    private final int[] offsets;
+
+    private LootBatch(int[] templateIds, int[] offsets){
+        this.templateIds = templateIds;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Rolls the sampler in parallel. The rolls are cut into chunks of a fixed size,
+     * and every chunk rolls with its own RandomSource split from random in chunk order,
+     * so the result only depends on the state of random, not on how the chunks are scheduled.
+     */
+    static LootBatch generate(LootSampler sampler, int rolls, int maxWeight, RandomSource random, ForkJoinPool pool){
+        if(rolls < 0) {
+            throw new IllegalArgumentException("rolls must not be negative.");
+        }
+        int chunkCount = (rolls + rollsPerChunk - 1) / rollsPerChunk;
+        RandomSource[] sources = new RandomSource[chunkCount];
+        for(int i = 0; i < chunkCount; ++i)
+            sources[i] = random.split();
+
+        IntList[] chunkItems = new IntList[chunkCount];
+        int[] itemCounts = new int[rolls];
+        pool.invoke(new ChunkTask(sampler, rolls, maxWeight, sources, chunkItems, itemCounts, 0, chunkCount));
+
+        int[] offsets = new int[rolls + 1];
+        for(int i = 0; i < rolls; ++i)
+            offsets[i+1] = offsets[i] + itemCounts[i];
+        int[] templateIds = new int[offsets[rolls]];
+        int position = 0;
+        for(IntList items : chunkItems){
+            items.copyTo(templateIds, position);
+            position += items.size();
+        }
+        return new LootBatch(templateIds, offsets);
+    }
+
+    private static final class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final LootSampler sampler;
+        private final int rolls;
+        private final int maxWeight;
+        private final RandomSource[] sources;
+        private final IntList[] chunkItems;
+        private final int[] itemCounts;
+        private final int fromChunk;
+        private final int toChunk;
+
+        ChunkTask(LootSampler sampler, int rolls, int maxWeight, RandomSource[] sources,
+                  IntList[] chunkItems, int[] itemCounts, int fromChunk, int toChunk){
+            this.sampler = sampler;
+            this.rolls = rolls;
+            this.maxWeight = maxWeight;
+            this.sources = sources;
+            this.chunkItems = chunkItems;
+            this.itemCounts = itemCounts;
+            this.fromChunk = fromChunk;
+            this.toChunk = toChunk;
+        }
+
+        @Override
+        protected void compute(){
+            if(toChunk - fromChunk > 1){
+                int middle = (fromChunk + toChunk) >>> 1;
+                invokeAll(new ChunkTask(sampler, rolls, maxWeight, sources, chunkItems, itemCounts, fromChunk, middle),
+                          new ChunkTask(sampler, rolls, maxWeight, sources, chunkItems, itemCounts, middle, toChunk));
+                return;
+            }
+            int from = fromChunk * rollsPerChunk;
+            int to = Math.min(rolls, from + rollsPerChunk);
+            IntList items = new IntList();
+            for(int roll = from; roll < to; ++roll)
+                itemCounts[roll] = sampler.getLoot(maxWeight, sources[fromChunk], items);
+            chunkItems[fromChunk] = items;
+        }
+    }
+
+    /**
+     * Returns the number of rolls in this batch
+     */
+    public int getRollCount(){
+        return offsets.length - 1;
+    }
+
+    /**
+     * Returns the number of items generated by all rolls together
+     */
+    public int getItemCount(){
+        return templateIds.length;
+    }
+
+    /**
+     * Returns the number of items generated by a roll
+     * @param roll The index of the roll
+     */
+    public int getItemCount(int roll){
+        return offsets[roll+1] - offsets[roll];
+    }
+
+    /**
+     * Returns the index of the first item of the roll. The items of
+     * the roll are at getOffset(roll) to getOffset(roll+1)-1.
+     * @param roll The index of the roll, or getRollCount() for the end of the last roll
+     */
+    public int getOffset(int roll){
+        return offsets[roll];
+    }
+
+    /**
+     * Returns the Template ID of an item
+     * @param index The index of the item among the items of all rolls
+     */
+    public int getTemplateId(int index){
+        return templateIds[index];
+    }
+
+    /**
+     * Appends the Template IDs of the items of a roll to the list
+     * @param roll The index of the roll
+     * @param loot The list the Template IDs are appended to
+     */
+    public void getLoot(int roll, IntList loot){
+        loot.addAll(templateIds, offsets[roll], offsets[roll+1]);
+    }
+
+    /**
+     * Returns the Template IDs of the items of a roll,
+     * in the form createItems takes them.
+     * @param roll The index of the roll
+     * @return An ArrayList containing the Template IDs
+     */
+    public ArrayList<Integer> getLoot(int roll){
+        ArrayList<Integer> loot = new ArrayList<>(getItemCount(roll));
+        for(int i = offsets[roll]; i < offsets[roll+1]; ++i)
+            loot.add(templateIds[i]);
+        return loot;
+    }
+
+    /**
+     * Returns the Template IDs of the items of all rolls
+     * @return A copy of the Template IDs
+     */
+    public int[] getTemplateIds(){
+        return templateIds.clone();
+    }
+
+    @Override
+    public String toString(){
+        return "LootBatch{rolls=" + getRollCount() + ", items=" + getItemCount() + "}";
+    }
+}
@@ -0,0 +1,411 @@
+package org.tyoda.wurmunlimited.mods.CommonLibrary;
+
+import java.util.AbstractCollection;
+import java.util.AbstractList;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * The map behind the deprecated LootTable.lootTable. getLoot does not read it, it uses a
+ * LootSampler compiled from it, so every change to the map or to one of its groups counts up
+ * the version, and LootTable compiles the sampler again when the version has changed.
+ * Lists put into the map are copied into groups of the map, so change them through the map.
+ */
+final class LootGroups extends HashMap<Integer, ArrayList<Integer>> {
+    private static final long serialVersionUID = 1L;
+
+    private volatile int version;
+
+    /**
+     * Returns a number that changes whenever the map or one of its groups changes
+     */
+    int getVersion(){
+        return version;
+    }
+
+    private void changed(){
+        ++version;
+    }
+
+    /**
+     * Replaces the groups with the ones of the sampler, merging the groups that share a cost
+     */
+    void setGroups(LootSampler sampler){
+        super.clear();
+        for(int group = 0; group < sampler.getGroupCount(); ++group){
+            int cost = sampler.getCost(group);
+            Group templateIds = (Group)super.get(cost);
+            if(templateIds == null) {
+                templateIds = new Group();
+                super.put(cost, templateIds);
+            }
+            for(int templateId : sampler.getTemplateIds(group))
+                templateIds.append(templateId);
+        }
+        changed();
+    }
+
+    /**
+     * Returns the list as a group of this map, copying it if it is not one
+     */
+    private ArrayList<Integer> track(ArrayList<Integer> list){
+        if(list == null || (list instanceof Group && ((Group)list).owner() == this)) return list;
+        Group group = new Group();
+        for(Integer templateId : list)
+            group.append(templateId);
+        return group;
+    }
+
+    @Override
+    public ArrayList<Integer> put(Integer key, ArrayList<Integer> value){
+        changed();
+        return super.put(key, track(value));
+    }
+
+    @Override
+    public void putAll(Map<? extends Integer, ? extends ArrayList<Integer>> m){
+        changed();
+        for(Map.Entry<? extends Integer, ? extends ArrayList<Integer>> entry : m.entrySet())
+            super.put(entry.getKey(), track(entry.getValue()));
+    }
+
+    @Override
+    public ArrayList<Integer> remove(Object key){
+        changed();
+        return super.remove(key);
+    }
+
+    @Override
+    public boolean remove(Object key, Object value){
+        changed();
+        return super.remove(key, value);
+    }
+
+    @Override
+    public void clear(){
+        changed();
+        super.clear();
+    }
+
+    @Override
+    public ArrayList<Integer> putIfAbsent(Integer key, ArrayList<Integer> value){
+        changed();
+        return super.putIfAbsent(key, track(value));
+    }
+
+    @Override
+    public boolean replace(Integer key, ArrayList<Integer> oldValue, ArrayList<Integer> newValue){
+        changed();
+        return super.replace(key, oldValue, track(newValue));
+    }
+
+    @Override
+    public ArrayList<Integer> replace(Integer key, ArrayList<Integer> value){
+        changed();
+        return super.replace(key, track(value));
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super Integer, ? super ArrayList<Integer>, ? extends ArrayList<Integer>> function){
+        changed();
+        super.replaceAll((key, value) -> track(function.apply(key, value)));
+    }
+
+    @Override
+    public ArrayList<Integer> computeIfAbsent(Integer key, Function<? super Integer, ? extends ArrayList<Integer>> mappingFunction){
+        changed();
+        return super.computeIfAbsent(key, k -> track(mappingFunction.apply(k)));
+    }
+
+    @Override
+    public ArrayList<Integer> computeIfPresent(Integer key,
+            BiFunction<? super Integer, ? super ArrayList<Integer>, ? extends ArrayList<Integer>> remappingFunction){
+        changed();
+        return super.computeIfPresent(key, (k, value) -> track(remappingFunction.apply(k, value)));
+    }
+
+    @Override
+    public ArrayList<Integer> compute(Integer key,
+            BiFunction<? super Integer, ? super ArrayList<Integer>, ? extends ArrayList<Integer>> remappingFunction){
+        changed();
+        return super.compute(key, (k, value) -> track(remappingFunction.apply(k, value)));
+    }
+
+    @Override
+    public ArrayList<Integer> merge(Integer key, ArrayList<Integer> value,
+            BiFunction<? super ArrayList<Integer>, ? super ArrayList<Integer>, ? extends ArrayList<Integer>> remappingFunction){
+        changed();
+        return super.merge(key, track(value), (oldValue, newValue) -> track(remappingFunction.apply(oldValue, newValue)));
+    }
+
+    // The views of HashMap change it without going through the methods above, so they are wrapped
+
+    @Override
+    public Set<Integer> keySet(){
+        Set<Integer> keys = super.keySet();
+        return new AbstractSet<Integer>() {
+            @Override
+            public Iterator<Integer> iterator(){
+                return new Tracked<>(keys.iterator());
+            }
+
+            @Override
+            public int size(){
+                return keys.size();
+            }
+
+            @Override
+            public boolean contains(Object o){
+                return keys.contains(o);
+            }
+        };
+    }
+
+    @Override
+    public Collection<ArrayList<Integer>> values(){
+        Collection<ArrayList<Integer>> values = super.values();
+        return new AbstractCollection<ArrayList<Integer>>() {
+            @Override
+            public Iterator<ArrayList<Integer>> iterator(){
+                return new Tracked<>(values.iterator());
+            }
+
+            @Override
+            public int size(){
+                return values.size();
+            }
+        };
+    }
+
+    @Override
+    public Set<Map.Entry<Integer, ArrayList<Integer>>> entrySet(){
+        Set<Map.Entry<Integer, ArrayList<Integer>>> entries = super.entrySet();
+        return new AbstractSet<Map.Entry<Integer, ArrayList<Integer>>>() {
+            @Override
+            public Iterator<Map.Entry<Integer, ArrayList<Integer>>> iterator(){
+                Iterator<Map.Entry<Integer, ArrayList<Integer>>> iterator = entries.iterator();
+                return new Tracked<Map.Entry<Integer, ArrayList<Integer>>>(iterator) {
+                    @Override
+                    public Map.Entry<Integer, ArrayList<Integer>> next(){
+                        Map.Entry<Integer, ArrayList<Integer>> entry = iterator.next();
+                        return new Map.Entry<Integer, ArrayList<Integer>>() {
+                            @Override
+                            public Integer getKey(){
+                                return entry.getKey();
+                            }
+
+                            @Override
+                            public ArrayList<Integer> getValue(){
+                                return entry.getValue();
+                            }
+
+                            @Override
+                            public ArrayList<Integer> setValue(ArrayList<Integer> value){
+                                changed();
+                                return entry.setValue(track(value));
+                            }
+
+                            @Override
+                            public boolean equals(Object o){
+                                return entry.equals(o);
+                            }
+
+                            @Override
+                            public int hashCode(){
+                                return entry.hashCode();
+                            }
+
+                            @Override
+                            public String toString(){
+                                return entry.toString();
+                            }
+                        };
+                    }
+                };
+            }
+
+            @Override
+            public int size(){
+                return entries.size();
+            }
+
+            @Override
+            public boolean contains(Object o){
+                return entries.contains(o);
+            }
+        };
+    }
+
+    /**
+     * An iterator of a view that counts up the version when an element is removed through it
+     */
+    private class Tracked<E> implements Iterator<E> {
+        private final Iterator<E> iterator;
+
+        Tracked(Iterator<E> iterator){
+            this.iterator = iterator;
+        }
+
+        @Override
+        public boolean hasNext(){
+            return iterator.hasNext();
+        }
+
+        @Override
+        public E next(){
+            return iterator.next();
+        }
+
+        @Override
+        public void remove(){
+            changed();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * The Template IDs of a group. Every change counts up the version of the map.
+     * Its iterators change it through the overridden methods, so they are counted as well.
+     */
+    private final class Group extends ArrayList<Integer> {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Goes through the methods of the group, which the sub lists of ArrayList do not
+         */
+        private final transient List<Integer> view = new AbstractList<Integer>() {
+            @Override
+            public Integer get(int index){
+                return Group.this.get(index);
+            }
+
+            @Override
+            public Integer set(int index, Integer templateId){
+                return Group.this.set(index, templateId);
+            }
+
+            @Override
+            public void add(int index, Integer templateId){
+                Group.this.add(index, templateId);
+            }
+
+            @Override
+            public Integer remove(int index){
+                return Group.this.remove(index);
+            }
+
+            @Override
+            public int size(){
+                return Group.this.size();
+            }
+        };
+
+        LootGroups owner(){
+            return LootGroups.this;
+        }
+
+        void append(int templateId){
+            super.add(templateId);
+        }
+
+        @Override
+        public boolean add(Integer templateId){
+            changed();
+            return super.add(templateId);
+        }
+
+        @Override
+        public void add(int index, Integer templateId){
+            changed();
+            super.add(index, templateId);
+        }
+
+        @Override
+        public boolean addAll(Collection<? extends Integer> c){
+            changed();
+            return super.addAll(c);
+        }
+
+        @Override
+        public boolean addAll(int index, Collection<? extends Integer> c){
+            changed();
+            return super.addAll(index, c);
+        }
+
+        @Override
+        public Integer set(int index, Integer templateId){
+            changed();
+            return super.set(index, templateId);
+        }
+
+        @Override
+        public Integer remove(int index){
+            changed();
+            return super.remove(index);
+        }
+
+        @Override
+        public boolean remove(Object o){
+            changed();
+            return super.remove(o);
+        }
+
+        @Override
+        public boolean removeAll(Collection<?> c){
+            changed();
+            return super.removeAll(c);
+        }
+
+        @Override
+        public boolean retainAll(Collection<?> c){
+            changed();
+            return super.retainAll(c);
+        }
+
+        @Override
+        public boolean removeIf(Predicate<? super Integer> filter){
+            changed();
+            return super.removeIf(filter);
+        }
+
+        @Override
+        public void replaceAll(UnaryOperator<Integer> operator){
+            changed();
+            super.replaceAll(operator);
+        }
+
+        @Override
+        public void sort(Comparator<? super Integer> c){
+            changed();
+            super.sort(c);
+        }
+
+        @Override
+        public void clear(){
+            changed();
+            super.clear();
+        }
+
+        @Override
+        protected void removeRange(int fromIndex, int toIndex){
+            changed();
+            super.removeRange(fromIndex, toIndex);
+        }
+
+        @Override
+        public List<Integer> subList(int fromIndex, int toIndex){
+            return view.subList(fromIndex, toIndex);
+        }
+    }
+}
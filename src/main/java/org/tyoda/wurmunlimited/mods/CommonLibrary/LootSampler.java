@@ -0,0 +1,474 @@
+package org.tyoda.wurmunlimited.mods.CommonLibrary;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * An immutable, precompiled form of a loot table.
+ * The groups are kept sorted by their cost, so the groups that still fit into
+ * the remaining budget are always a prefix of the group list. Picking a group from
+ * that prefix takes constant time in both modes: uniform mode draws an index,
+ * weighted mode uses a precompiled alias table for every prefix.
+ */
+public final class LootSampler {
+    /**
+     * The most groups of a weighted loot table. Every prefix of the groups has its own alias table,
+     * so the tables take groups squared memory: 4096 groups take about 64MB.
+     */
+    public static final int maxWeightedGroups = 4096;
+    private static final MetricsRegistry.Counter rolls = CommonLibrary.metrics.counter("loot.rolls");
+    private static final MetricsRegistry.Counter items = CommonLibrary.metrics.counter("loot.items");
+    private static final MetricsRegistry.Counter bailouts = CommonLibrary.metrics.counter("loot.bailouts");
+    /**
+     * The rolls by how much of the budget they spent, in 10% wide buckets like
+     * "loot.budgetFill.20-29%", with a last one for the rolls that spent all of it
+     */
+    private static final MetricsRegistry.Counter[] budgetFill = createBudgetFillCounters();
+
+    /**
+     * The cost of every group, in ascending order
+     */
+    private final int[] costs;
+    /**
+     * The relative chance of every group, only used in weighted mode
+     */
+    private final float[] chances;
+    /**
+     * The Template IDs of the items of every group, one group after the other
+     */
+    private final int[] templateIds;
+    /**
+     * The items of group i are templateIds[groupOffsets[i]] to templateIds[groupOffsets[i+1]-1]
+     */
+    private final int[] groupOffsets;
+    private final boolean weighted;
+    /**
+     * The alias tables of all the prefixes laid out one after the other.
+     * The table of the first p groups starts at p*(p-1)/2.
+     * Both are null in uniform mode.
+     */
+    private final float[] aliasProbability;
+    private final int[] alias;
+
+    private LootSampler(int[] costs, float[] chances, int[][] groups, boolean weighted){
+        this.costs = costs;
+        this.chances = chances;
+        this.weighted = weighted;
+        groupOffsets = new int[groups.length + 1];
+        for(int i = 0; i < groups.length; ++i)
+            groupOffsets[i+1] = groupOffsets[i] + groups[i].length;
+        templateIds = new int[groupOffsets[groups.length]];
+        for(int i = 0; i < groups.length; ++i)
+            System.arraycopy(groups[i], 0, templateIds, groupOffsets[i], groups[i].length);
+
+        if(weighted){
+            int size = aliasTableSize(costs.length);
+            aliasProbability = new float[size];
+            alias = new int[size];
+            for(int prefix = 1; prefix <= costs.length; ++prefix)
+                buildAliasTable(prefix);
+        }else{
+            aliasProbability = null;
+            alias = null;
+        }
+    }
+
+    private LootSampler(int[] costs, float[] chances, int[] templateIds, int[] groupOffsets, boolean weighted,
+                        float[] aliasProbability, int[] alias){
+        this.costs = costs;
+        this.chances = chances;
+        this.templateIds = templateIds;
+        this.groupOffsets = groupOffsets;
+        this.weighted = weighted;
+        this.aliasProbability = aliasProbability;
+        this.alias = alias;
+    }
+
+    /**
+     * Recreates a LootSampler from the arrays of an already compiled one, without
+     * sorting the groups or building the alias tables again. The arrays are not copied.
+     * @throws IllegalArgumentException If the arrays do not make up a valid LootSampler
+     */
+    static LootSampler compiled(int[] costs, float[] chances, int[] templateIds, int[] groupOffsets, boolean weighted,
+                                float[] aliasProbability, int[] alias){
+        int groups = costs.length;
+        if(chances.length != groups || groupOffsets.length != groups + 1
+                || groupOffsets[0] != 0 || groupOffsets[groups] != templateIds.length) {
+            throw new IllegalArgumentException("The lengths of the compiled arrays do not match.");
+        }
+        for(int i = 0; i < groups; ++i){
+            if(costs[i] <= 0 || (i > 0 && costs[i] < costs[i-1]) || groupOffsets[i+1] <= groupOffsets[i]
+                    || !(chances[i] > 0) || Float.isInfinite(chances[i])) {
+                throw new IllegalArgumentException("The compiled group " + i + " is invalid.");
+            }
+        }
+        if(weighted){
+            int size = aliasTableSize(groups);
+            if(aliasProbability == null || alias == null || aliasProbability.length != size || alias.length != size) {
+                throw new IllegalArgumentException("The compiled alias tables are missing or have the wrong length.");
+            }
+            for(int prefix = 1; prefix <= groups; ++prefix){
+                int base = prefix * (prefix - 1) / 2;
+                for(int i = 0; i < prefix; ++i){
+                    if(alias[base + i] < 0 || alias[base + i] >= prefix) {
+                        throw new IllegalArgumentException("The compiled alias table of prefix " + prefix + " is invalid.");
+                    }
+                }
+            }
+        }else{
+            aliasProbability = null;
+            alias = null;
+        }
+        return new LootSampler(costs, chances, templateIds, groupOffsets, weighted, aliasProbability, alias);
+    }
+
+    /**
+     * Compiles a loot table where every group that fits into the remaining
+     * budget is equally likely to be picked. This is how LootTable has
+     * always picked its groups.
+     * @param lootTable A Hashmap that maps the weight of the groups to the Template IDs
+     *                  of the items they contain.
+     * @return The compiled LootSampler
+     */
+    public static LootSampler uniform(HashMap<Integer, ArrayList<Integer>> lootTable){
+        int[] costs = new int[lootTable.size()];
+        int[][] templateIds = new int[lootTable.size()][];
+        int i = 0;
+        for(Integer weight : lootTable.keySet()){
+            ArrayList<Integer> group = lootTable.get(weight);
+            costs[i] = weight;
+            templateIds[i] = new int[group.size()];
+            for(int j = 0; j < templateIds[i].length; ++j)
+                templateIds[i][j] = group.get(j);
+            ++i;
+        }
+        return uniform(costs, templateIds);
+    }
+
+    /**
+     * Compiles a loot table where every group that fits into the remaining
+     * budget is equally likely to be picked. Unlike a Hashmap, this allows
+     * several groups to share a weight.
+     * @param costs The amount of weight each group takes from the budget. Must be positive.
+     * @param templateIds The Template IDs of the items each group contains
+     * @return The compiled LootSampler
+     */
+    public static LootSampler uniform(int[] costs, int[][] templateIds){
+        float[] chances = new float[costs.length];
+        Arrays.fill(chances, 1f);
+        return sorted(costs, chances, templateIds, false);
+    }
+
+    /**
+     * Compiles a loot table where the groups are picked according to their
+     * chance instead of uniformly. The cost of a group is only used to decide
+     * whether it fits into the remaining budget, so several groups may share a cost.
+     * @param costs The amount of weight each group takes from the budget. Must be positive.
+     * @param chances The relative chance of each group being picked. Must be positive.
+     * @param templateIds The Template IDs of the items each group contains
+     * @return The compiled LootSampler
+     * @throws IllegalArgumentException If there are more than maxWeightedGroups groups
+     */
+    public static LootSampler weighted(int[] costs, float[] chances, int[][] templateIds){
+        return sorted(costs, chances, templateIds, true);
+    }
+
+    /**
+     * Returns the length of the alias tables of every prefix of the groups laid out one after the other
+     * @throws IllegalArgumentException If there are more than maxWeightedGroups groups
+     */
+    private static int aliasTableSize(int groups){
+        if(groups > maxWeightedGroups) {
+            throw new IllegalArgumentException("A weighted loot table can have at most " + maxWeightedGroups
+                    + " groups, it has " + groups + ". Use fewer groups or a uniform loot table.");
+        }
+        return (int)((long)groups * (groups + 1) / 2);
+    }
+
+    private static LootSampler sorted(int[] costs, float[] chances, int[][] templateIds, boolean weighted){
+        if(costs.length != chances.length || costs.length != templateIds.length) {
+            throw new IllegalArgumentException("costs, chances and templateIds must have the same length.");
+        }
+        Integer[] order = new Integer[costs.length];
+        for(int i = 0; i < order.length; ++i)
+            order[i] = i;
+        Arrays.sort(order, (a, b) -> Integer.compare(costs[a], costs[b]));
+
+        int[] sortedCosts = new int[costs.length];
+        float[] sortedChances = new float[costs.length];
+        int[][] sortedTemplateIds = new int[costs.length][];
+        for(int i = 0; i < order.length; ++i){
+            sortedCosts[i] = costs[order[i]];
+            sortedChances[i] = chances[order[i]];
+            sortedTemplateIds[i] = templateIds[order[i]];
+        }
+        validate(sortedCosts, sortedChances, sortedTemplateIds);
+        return new LootSampler(sortedCosts, sortedChances, sortedTemplateIds, weighted);
+    }
+
+    private static void validate(int[] costs, float[] chances, int[][] templateIds){
+        for(int i = 0; i < costs.length; ++i){
+            if(costs[i] <= 0) {
+                throw new IllegalArgumentException("The weight of a group must be positive, was: " + costs[i]);
+            }
+            if(!(chances[i] > 0) || Float.isInfinite(chances[i])) {
+                throw new IllegalArgumentException("The chance of a group must be a positive number, was: " + chances[i]);
+            }
+            if(templateIds[i].length == 0) {
+                throw new IllegalArgumentException("The group with weight " + costs[i] + " contains no items.");
+            }
+        }
+    }
+
+    /**
+     * Builds the alias table for the first prefix groups using Vose's method.
+     */
+    private void buildAliasTable(int prefix){
+        int base = prefix * (prefix - 1) / 2;
+        double total = 0;
+        for(int i = 0; i < prefix; ++i)
+            total += chances[i];
+
+        double[] scaled = new double[prefix];
+        int[] small = new int[prefix];
+        int[] large = new int[prefix];
+        int smallCount = 0, largeCount = 0;
+        for(int i = 0; i < prefix; ++i){
+            scaled[i] = chances[i] * prefix / total;
+            if(scaled[i] < 1) small[smallCount++] = i;
+            else large[largeCount++] = i;
+        }
+        while(smallCount > 0 && largeCount > 0){
+            int less = small[--smallCount];
+            int more = large[--largeCount];
+            aliasProbability[base + less] = (float)scaled[less];
+            alias[base + less] = more;
+            scaled[more] = scaled[more] + scaled[less] - 1;
+            if(scaled[more] < 1) small[smallCount++] = more;
+            else large[largeCount++] = more;
+        }
+        // Whatever is left over is only off by rounding errors
+        while(largeCount > 0){
+            int i = large[--largeCount];
+            aliasProbability[base + i] = 1f;
+            alias[base + i] = i;
+        }
+        while(smallCount > 0){
+            int i = small[--smallCount];
+            aliasProbability[base + i] = 1f;
+            alias[base + i] = i;
+        }
+    }
+
+    /*
+     * The compiled arrays, for storing this LootSampler. They are not copied and must not be modified.
+     */
+    int[] compiledCosts(){
+        return costs;
+    }
+
+    float[] compiledChances(){
+        return chances;
+    }
+
+    int[] compiledTemplateIds(){
+        return templateIds;
+    }
+
+    int[] compiledGroupOffsets(){
+        return groupOffsets;
+    }
+
+    float[] compiledAliasProbability(){
+        return aliasProbability;
+    }
+
+    int[] compiledAlias(){
+        return alias;
+    }
+
+    /**
+     * Randomly generates a list of items. Groups are picked until the budget is
+     * spent or no group fits into what is left of it.
+     * @param maxWeight This is the maximum amount of weight the items will be worth.
+     * @param random The random to roll with
+     * @return An ArrayList containing the Template IDs of the generated items.
+     */
+    public ArrayList<Integer> getLoot(int maxWeight, RandomSource random){
+        IntList loot = new IntList();
+        getLoot(maxWeight, random, loot);
+        return loot.toArrayList();
+    }
+
+    /**
+     * Randomly generates items and appends their Template IDs to the list.
+     * Groups are picked until the budget is spent or no group fits into what is left of it.
+     * @param maxWeight This is the maximum amount of weight the items will be worth.
+     * @param random The random to roll with
+     * @param loot The list the Template IDs of the generated items are appended to
+     * @return The number of items appended
+     */
+    public int getLoot(int maxWeight, RandomSource random, IntList loot){
+        int before = loot.size();
+        getLootWeight(maxWeight, random, loot);
+        return loot.size() - before;
+    }
+
+    /**
+     * Randomly generates items like getLoot, but returns the amount of weight
+     * the generated items are worth. It is less than maxWeight when the
+     * generation stopped because no group fit into what was left of the budget.
+     * @param maxWeight This is the maximum amount of weight the items will be worth.
+     * @param random The random to roll with
+     * @param loot The list the Template IDs of the generated items are appended to
+     * @return The amount of weight the generated items are worth
+     */
+    public int getLootWeight(int maxWeight, RandomSource random, IntList loot){
+        return getLootWeight(maxWeight, random, loot, true);
+    }
+
+    /**
+     * Randomly generates items like getLootWeight, recording the roll
+     * in CommonLibrary.metrics only if record is true. LootSimulator does not record its rolls.
+     */
+    int getLootWeight(int maxWeight, RandomSource random, IntList loot, boolean record){
+        int before = loot.size();
+        int remaining = maxWeight;
+        int eligible = costs.length;
+        while(remaining > 0){
+            while(eligible > 0 && costs[eligible-1] > remaining) --eligible;
+            if(eligible == 0) break;
+
+            int group = pickGroup(eligible, random);
+            loot.add(pickItem(group, random));
+            remaining -= costs[group];
+        }
+        int spent = Math.max(maxWeight, 0) - Math.max(remaining, 0);
+        if(record) record(maxWeight, spent, loot.size() - before, remaining > 0);
+        return spent;
+    }
+
+    /**
+     * Randomly generates items and writes their Template IDs into the buffer.
+     * Groups are picked until the budget is spent, no group fits into what is
+     * left of it, or the buffer is full.
+     * @param maxWeight This is the maximum amount of weight the items will be worth.
+     * @param random The random to roll with
+     * @param buffer The array the Template IDs of the generated items are written to
+     * @param offset The index of buffer the first Template ID is written to
+     * @return The number of items written
+     */
+    public int getLoot(int maxWeight, RandomSource random, int[] buffer, int offset){
+        int index = offset;
+        int remaining = maxWeight;
+        int eligible = costs.length;
+        while(remaining > 0 && index < buffer.length){
+            while(eligible > 0 && costs[eligible-1] > remaining) --eligible;
+            if(eligible == 0) break;
+
+            int group = pickGroup(eligible, random);
+            buffer[index++] = pickItem(group, random);
+            remaining -= costs[group];
+        }
+        record(maxWeight, Math.max(maxWeight, 0) - Math.max(remaining, 0), index - offset,
+                remaining > 0 && index < buffer.length);
+        return index - offset;
+    }
+
+    /**
+     * Records a roll in CommonLibrary.metrics
+     * @param bailedOut Whether the roll stopped because no group fit into what was left of the budget
+     */
+    private static void record(int maxWeight, int spent, int itemCount, boolean bailedOut){
+        rolls.increment();
+        items.add(itemCount);
+        if(bailedOut) bailouts.increment();
+        if(maxWeight > 0) budgetFill[(int)Math.min(spent * 10L / maxWeight, 10)].increment();
+    }
+
+    private static MetricsRegistry.Counter[] createBudgetFillCounters(){
+        MetricsRegistry.Counter[] counters = new MetricsRegistry.Counter[11];
+        for(int i = 0; i < 10; ++i)
+            counters[i] = CommonLibrary.metrics.counter("loot.budgetFill." + i * 10 + "-" + (i * 10 + 9) + "%");
+        counters[10] = CommonLibrary.metrics.counter("loot.budgetFill.full");
+        return counters;
+    }
+
+    /**
+     * Picks one of the first eligible groups.
+     */
+    private int pickGroup(int eligible, RandomSource random){
+        if(!weighted) return random.nextInt(eligible);
+
+        double roll = random.nextDouble() * eligible;
+        int column = Math.min((int)roll, eligible - 1);
+        int index = eligible * (eligible - 1) / 2 + column;
+        return roll - column < aliasProbability[index] ? column : alias[index];
+    }
+
+    private int pickItem(int group, RandomSource random){
+        int from = groupOffsets[group];
+        return templateIds[from + random.nextInt(groupOffsets[group+1] - from)];
+    }
+
+    /**
+     * Returns whether groups are picked according to their chance,
+     * or uniformly.
+     */
+    public boolean isWeighted(){
+        return weighted;
+    }
+
+    /**
+     * Returns the number of groups. Groups are indexed in ascending order of their cost.
+     */
+    public int getGroupCount(){
+        return costs.length;
+    }
+
+    /**
+     * Returns the amount of weight the group takes from the budget.
+     * @param group The index of the group
+     */
+    public int getCost(int group){
+        return costs[group];
+    }
+
+    /**
+     * Returns the relative chance of the group being picked. It is 1 for every group in uniform mode.
+     * @param group The index of the group
+     */
+    public float getChance(int group){
+        return chances[group];
+    }
+
+    /**
+     * Returns the Template IDs of the items in the group.
+     * @param group The index of the group
+     * @return A copy of the Template IDs
+     */
+    public int[] getTemplateIds(int group){
+        return Arrays.copyOfRange(templateIds, groupOffsets[group], groupOffsets[group+1]);
+    }
+
+    /**
+     * Returns the number of items in the group.
+     * @param group The index of the group
+     */
+    public int getGroupSize(int group){
+        return groupOffsets[group+1] - groupOffsets[group];
+    }
+
+    /**
+     * Returns the Template ID of an item in the group.
+     * @param group The index of the group
+     * @param item The index of the item within the group
+     */
+    public int getTemplateId(int group, int item){
+        if(item < 0 || item >= getGroupSize(group)) {
+            throw new IndexOutOfBoundsException("Item: " + item + ", Group size: " + getGroupSize(group));
+        }
+        return templateIds[groupOffsets[group] + item];
+    }
+}
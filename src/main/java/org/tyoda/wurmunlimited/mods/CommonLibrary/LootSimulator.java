@@ -0,0 +1,341 @@
+package org.tyoda.wurmunlimited.mods.CommonLibrary;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Rolls a LootTable a large number of times without creating any items,
+ * and reports how the loot, rarities and qualities turned out.
+ * It does not need a running server, so it can be used to tune
+ * loot tables offline or in CI. Its rolls are not recorded in CommonLibrary.metrics.
+ */
+public final class LootSimulator {
+    /**
+     * The number of rolls done with one RandomSource by one task
+     */
+    private static final int rollsPerChunk = 4096;
+
+    private final LootTable lootTable;
+    private final int[] templateIds;
+    /**
+     * The value of every entry in templateIds in irons, zero if it has none
+     */
+    private final long[] templateValues;
+
+    /**
+     * Initializes a LootSimulator for the LootTable. Coins are valued by
+     * their denomination, every other item is worth nothing.
+     * @param lootTable The LootTable to simulate
+     */
+    public LootSimulator(LootTable lootTable){
+        this.lootTable = lootTable;
+        LootSampler sampler = lootTable.getSampler();
+        IntList ids = new IntList();
+        for(int group = 0; group < sampler.getGroupCount(); ++group)
+            ids.addAll(sampler.getTemplateIds(group), 0, sampler.getGroupSize(group));
+        int[] sorted = ids.toArray();
+        Arrays.sort(sorted);
+        int unique = 0;
+        for(int i = 0; i < sorted.length; ++i)
+            if(i == 0 || sorted[i] != sorted[i-1]) sorted[unique++] = sorted[i];
+        templateIds = Arrays.copyOf(sorted, unique);
+
+        templateValues = new long[templateIds.length];
+        for(int denomination = 0; denomination < LootTable.coinDenominations; ++denomination)
+            setTemplateValue(LootTable.getCoinTemplateId(denomination), LootTable.getCoinValue(denomination));
+    }
+
+    /**
+     * Sets the value an item is counted as in the expected value of a roll.
+     * @param templateId The Template ID of the item
+     * @param value The value of the item in irons
+     */
+    public void setTemplateValue(int templateId, long value){
+        int index = Arrays.binarySearch(templateIds, templateId);
+        if(index >= 0) templateValues[index] = value;
+    }
+
+    /**
+     * Rolls the LootTable in parallel on the common ForkJoinPool. The result is the same every time for the same seed.
+     * @param rolls The number of times to roll
+     * @param maxWeight The maximum amount of weight the items of one roll will be worth
+     * @param seed The seed the rolls are made with
+     * @return A Report of the rolls
+     */
+    public Report run(long rolls, int maxWeight, long seed){
+        return run(rolls, maxWeight, RandomSource.splittable(seed), ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Rolls the LootTable in parallel. The rolls are cut into chunks of a fixed size, and every
+     * chunk rolls with its own RandomSource split from random in chunk order, so the
+     * result only depends on the state of random.
+     * @param rolls The number of times to roll
+     * @param maxWeight The maximum amount of weight the items of one roll will be worth
+     * @param random The RandomSource the sources of the parallel tasks are split from
+     * @param pool The ForkJoinPool the rolls are done on
+     * @return A Report of the rolls
+     */
+    public Report run(long rolls, int maxWeight, RandomSource random, ForkJoinPool pool){
+        if(rolls < 0) {
+            throw new IllegalArgumentException("rolls must not be negative.");
+        }
+        int chunkCount = (int)((rolls + rollsPerChunk - 1) / rollsPerChunk);
+        RandomSource[] sources = new RandomSource[chunkCount];
+        for(int i = 0; i < chunkCount; ++i)
+            sources[i] = random.split();
+
+        if(chunkCount == 0) return new Report(this, maxWeight);
+        return pool.invoke(new ChunkTask(rolls, maxWeight, sources, 0, chunkCount));
+    }
+
+    private final class ChunkTask extends RecursiveTask<Report> {
+        private static final long serialVersionUID = 1L;
+        private final long rolls;
+        private final int maxWeight;
+        private final RandomSource[] sources;
+        private final int fromChunk;
+        private final int toChunk;
+
+        ChunkTask(long rolls, int maxWeight, RandomSource[] sources, int fromChunk, int toChunk){
+            this.rolls = rolls;
+            this.maxWeight = maxWeight;
+            this.sources = sources;
+            this.fromChunk = fromChunk;
+            this.toChunk = toChunk;
+        }
+
+        @Override
+        protected Report compute(){
+            if(toChunk - fromChunk > 1){
+                int middle = (fromChunk + toChunk) >>> 1;
+                ChunkTask right = new ChunkTask(rolls, maxWeight, sources, middle, toChunk);
+                right.fork();
+                Report report = new ChunkTask(rolls, maxWeight, sources, fromChunk, middle).compute();
+                report.add(right.join());
+                return report;
+            }
+            long from = (long)fromChunk * rollsPerChunk;
+            long to = Math.min(rolls, from + rollsPerChunk);
+            return simulate((int)(to - from), maxWeight, sources[fromChunk]);
+        }
+    }
+
+    private Report simulate(int rolls, int maxWeight, RandomSource random){
+        Report report = new Report(this, maxWeight);
+        LootSampler sampler = lootTable.getSampler();
+        RarityRoller rarityRoller = lootTable.getRarityRoller();
+        QualityDistribution quality = lootTable.getQualityDistribution();
+        IntList loot = new IntList();
+        byte[] rarities = new byte[16];
+
+        for(int roll = 0; roll < rolls; ++roll){
+            loot.clear();
+            int spent = sampler.getLootWeight(maxWeight, random, loot, false);
+            report.rolls++;
+            report.spentWeight += spent;
+            if(spent < maxWeight) report.bailouts++;
+
+            int items = loot.size();
+            if(rarities.length < items) rarities = new byte[Math.max(items, rarities.length * 2)];
+            rarityRoller.fill(rarities, 0, items, random);
+            for(int i = 0; i < items; ++i){
+                int index = Arrays.binarySearch(templateIds, loot.get(i));
+                report.drops[index]++;
+                report.totalValue += templateValues[index];
+                report.rarities[rarities[i]]++;
+                float q = quality.sample(random);
+                report.qualitySum += q;
+                report.qualities[Math.min((int)q, 99)]++;
+            }
+            report.items += items;
+        }
+        return report;
+    }
+
+    /**
+     * The results of a simulation.
+     */
+    public static final class Report {
+        private final int[] templateIds;
+        private final int maxWeight;
+        private final long[] drops;
+        private final long[] rarities = new long[4];
+        /**
+         * The number of items with quality in [i, i+1)
+         */
+        private final long[] qualities = new long[100];
+        private long rolls = 0;
+        private long items = 0;
+        private long bailouts = 0;
+        private long spentWeight = 0;
+        private long totalValue = 0;
+        private double qualitySum = 0;
+
+        private Report(LootSimulator simulator, int maxWeight){
+            this.templateIds = simulator.templateIds;
+            this.maxWeight = maxWeight;
+            this.drops = new long[templateIds.length];
+        }
+
+        private void add(Report other){
+            for(int i = 0; i < drops.length; ++i)
+                drops[i] += other.drops[i];
+            for(int i = 0; i < rarities.length; ++i)
+                rarities[i] += other.rarities[i];
+            for(int i = 0; i < qualities.length; ++i)
+                qualities[i] += other.qualities[i];
+            rolls += other.rolls;
+            items += other.items;
+            bailouts += other.bailouts;
+            spentWeight += other.spentWeight;
+            totalValue += other.totalValue;
+            qualitySum += other.qualitySum;
+        }
+
+        /**
+         * Returns the number of rolls made
+         */
+        public long getRolls(){
+            return rolls;
+        }
+
+        /**
+         * Returns the number of items generated by all rolls together
+         */
+        public long getItems(){
+            return items;
+        }
+
+        /**
+         * Returns the Template IDs in the LootTable in ascending order
+         */
+        public int[] getTemplateIds(){
+            return templateIds.clone();
+        }
+
+        /**
+         * Returns how many times an item was generated
+         * @param templateId The Template ID of the item
+         */
+        public long getDrops(int templateId){
+            int index = Arrays.binarySearch(templateIds, templateId);
+            return index < 0 ? 0 : drops[index];
+        }
+
+        /**
+         * Returns the average number of times an item is generated per roll
+         * @param templateId The Template ID of the item
+         */
+        public double getDropRate(int templateId){
+            return rolls == 0 ? 0 : (double)getDrops(templateId) / rolls;
+        }
+
+        /**
+         * Returns the average value of the items of a roll in irons
+         */
+        public double getExpectedValue(){
+            return rolls == 0 ? 0 : (double)totalValue / rolls;
+        }
+
+        /**
+         * Returns the average portion of the budget the items of a roll are worth [0..1]
+         */
+        public double getBudgetUtilization(){
+            return rolls == 0 || maxWeight <= 0 ? 0 : (double)spentWeight / rolls / maxWeight;
+        }
+
+        /**
+         * Returns how many rolls stopped with budget left because no group fit into it.
+         * These are the rolls that used to give up after 1000 tries.
+         */
+        public long getBailouts(){
+            return bailouts;
+        }
+
+        /**
+         * Returns the portion of the items with the rarity
+         * @param rarity The rarity between 0 and 3 (inclusive)
+         */
+        public double getRarityRate(int rarity){
+            return items == 0 ? 0 : (double)rarities[rarity] / items;
+        }
+
+        /**
+         * Returns the average quality of the items
+         */
+        public double getAverageQuality(){
+            return items == 0 ? 0 : qualitySum / items;
+        }
+
+        /**
+         * Returns the quality below which the given portion of the items fall,
+         * accurate to the whole quality level.
+         * @param portion The portion [0..1]
+         */
+        public int getQualityPercentile(double portion){
+            long target = (long)Math.ceil(portion * items);
+            long seen = 0;
+            for(int i = 0; i < qualities.length; ++i){
+                seen += qualities[i];
+                if(seen >= target && seen > 0) return i;
+            }
+            return 100;
+        }
+
+        @Override
+        public String toString(){
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("Rolls: %d  Budget: %d  Items: %d (%.3f per roll)%n",
+                    rolls, maxWeight, items, rolls == 0 ? 0 : (double)items / rolls));
+            sb.append(String.format("Budget utilization: %.2f%%  Bailouts: %d (%.4f%% of rolls)%n",
+                    getBudgetUtilization() * 100, bailouts, rolls == 0 ? 0 : bailouts * 100.0 / rolls));
+            sb.append(String.format("Expected value: %.2f irons per roll%n", getExpectedValue()));
+            sb.append(String.format("Rarity: none %.6f%%  rare %.6f%%  supreme %.6f%%  fantastic %.6f%%%n",
+                    getRarityRate(0) * 100, getRarityRate(1) * 100, getRarityRate(2) * 100, getRarityRate(3) * 100));
+            sb.append(String.format("Quality: average %.2f  p10 %d  p50 %d  p90 %d%n",
+                    getAverageQuality(), getQualityPercentile(0.1), getQualityPercentile(0.5), getQualityPercentile(0.9)));
+            sb.append("Template ID  Drops per roll  Share of items").append(System.lineSeparator());
+            for(int i = 0; i < templateIds.length; ++i){
+                sb.append(String.format("%11d  %14.6f  %13.4f%%%n", templateIds[i],
+                        rolls == 0 ? 0 : (double)drops[i] / rolls, items == 0 ? 0 : drops[i] * 100.0 / items));
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Simulates a loot table read from a properties file and prints the report.
+     * The table is read by LootTableLoader from the given section, or from the keys
+     * without a prefix if no section is given, where every key that is a number is
+     * the weight of a group, and its value is the Template IDs of the group separated
+     * by commas. The keys rareChance, supremeChance and fantasticChance set the rarity chances.
+     * Usage: LootSimulator &lt;properties file&gt; &lt;max weight&gt; [rolls] [seed] [section]
+     */
+    public static void main(String[] args) throws IOException {
+        if(args.length < 2) {
+            System.err.println("Usage: LootSimulator <properties file> <max weight> [rolls] [seed] [section]");
+            System.exit(1);
+        }
+        SimpleProperties properties = new SimpleProperties();
+        try(InputStream in = new FileInputStream(args[0])) {
+            properties.load(in);
+        }
+        int maxWeight = Integer.parseInt(args[1]);
+        long rolls = args.length > 2 ? Long.parseLong(args[2]) : 1_000_000L;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : System.nanoTime();
+        String section = args.length > 4 ? args[4] : "";
+
+        LootTable lootTable = new LootTableLoader().load(properties, section);
+
+        long start = System.nanoTime();
+        Report report = new LootSimulator(lootTable).run(rolls, maxWeight, seed);
+        long millis = (System.nanoTime() - start) / 1_000_000L;
+        System.out.print(report);
+        System.out.printf("Seed: %d  Took: %d ms on %d threads%n", seed, millis, ForkJoinPool.getCommonPoolParallelism());
+    }
+}
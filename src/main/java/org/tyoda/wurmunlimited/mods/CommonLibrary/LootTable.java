@@ -4,17 +4,37 @@ import com.wurmonline.server.FailedException;
 import com.wurmonline.server.economy.Economy;
 import com.wurmonline.server.items.Item;
 import com.wurmonline.server.items.ItemFactory;
+import com.wurmonline.server.items.ItemTemplateFactory;
 import com.wurmonline.server.items.NoSuchTemplateException;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 public class LootTable {
+    /**
+     * @deprecated Use a RandomSource instead.
+     */
+    @Deprecated
     public static final Random random = CommonLibrary.random;
     public static final Logger logger = CommonLibrary.logger;
+    private static final MetricsRegistry.Counter itemsCreated = CommonLibrary.metrics.counter("items.created");
+    private static final MetricsRegistry.Counter templateFailures = CommonLibrary.metrics.counter("items.templateFailures");
+    private static final MetricsRegistry.Counter invalidTemplatesSkipped = CommonLibrary.metrics.counter("items.invalidTemplatesSkipped");
+    private static final MetricsRegistry.Histogram createItemsNanos = CommonLibrary.metrics.histogram("items.createNanos");
+    private static final MetricsRegistry.Counter coinsGenerated = CommonLibrary.metrics.counter("coins.generated");
+    private static final MetricsRegistry.Counter coinsGeneratedValue = CommonLibrary.metrics.counter("coins.generatedValue");
+    private static final MetricsRegistry.Counter coinsCreated = CommonLibrary.metrics.counter("coins.created");
+    private static final MetricsRegistry.Counter coinsCreatedValue = CommonLibrary.metrics.counter("coins.createdValue");
 
     public static final int ironPenny = 1;
     public static final int ironFive = 5;
@@ -32,7 +52,28 @@ public class LootTable {
     private float rareChance = 0.0001f;
     private float supremeChance = 0.00001f;
     private float fantasticChance = 0.000001f;
-    public final HashMap<Integer, ArrayList<Integer>> lootTable = new HashMap<>();
+    private volatile RarityRoller rarityRoller = new RarityRoller(rareChance, supremeChance, fantasticChance);
+    /**
+     * The RarityRoller last used by the static randomRarity and createItems methods
+     */
+    private static volatile RarityRoller lastStaticRoller = new RarityRoller(0, 0, 0);
+    private volatile QualityDistribution qualityDistribution = QualityDistribution.uniform();
+    /**
+     * The groups of this LootTable. getLoot does not read this map, it uses a LootSampler
+     * compiled from it, which is compiled again on the next roll after the map or one of its
+     * lists is changed. Lists put into the map are copied, so change them through the map.
+     * setSampler() replaces the groups with the ones of the new sampler.
+     * @deprecated The groups are stored in flat int arrays by the LootSampler, use getSampler() instead.
+     */
+    @Deprecated
+    public final HashMap<Integer, ArrayList<Integer>> lootTable = new LootGroups();
+    private volatile LootSampler sampler;
+    /**
+     * The version of lootTable the sampler matches
+     */
+    private volatile int compiledVersion;
+    private volatile RandomSource randomSource = CommonLibrary.randomSource;
+    private volatile TemplateCheck templateCheck;
 
     /**
      * Initializes the lootTable.
@@ -41,87 +82,331 @@ public class LootTable {
      */
     public LootTable(HashMap<Integer, ArrayList<Integer>> newLootTable){
         for (Integer i : newLootTable.keySet()) {
-            ArrayList<Integer> arr = new ArrayList<>(newLootTable.get(i));
-            this.lootTable.put(i, arr);
+            lootTable.put(i, newLootTable.get(i));
+        }
+        sampler = LootSampler.uniform(lootTable);
+        compiledVersion = ((LootGroups)lootTable).getVersion();
+        templateCheck = checkTemplates(sampler);
+    }
+
+    /**
+     * Initializes the lootTable without boxing the Template IDs.
+     * @param weights The weight of each group
+     * @param templateIds The Template IDs of the items each group contains
+     */
+    public LootTable(int[] weights, int[][] templateIds){
+        this(LootSampler.uniform(weights, templateIds));
+    }
+
+    /**
+     * Initializes the lootTable from an already compiled LootSampler.
+     * Groups of the sampler that share a weight are merged in lootTable.
+     * @param sampler The LootSampler used to generate loot
+     */
+    public LootTable(LootSampler sampler){
+        setSampler(sampler);
+    }
+
+    /**
+     * Returns the LootSampler, compiling it again first if lootTable was changed since
+     */
+    private LootSampler sampler(){
+        LootGroups groups = (LootGroups)lootTable;
+        if(compiledVersion == groups.getVersion()) return sampler;
+        synchronized(this){
+            int version = groups.getVersion();
+            if(compiledVersion != version){
+                LootSampler compiled = LootSampler.uniform(lootTable);
+                templateCheck = checkTemplates(compiled);
+                sampler = compiled;
+                compiledVersion = version;
+            }
+            return sampler;
         }
     }
+
     /**
      * Randomly generates a list of items from the loottable.
      * @param maxWeight This is the maximum amount of weight the items will be worth.
      * @return An ArrayList containing the Template IDs of the generated items.
      */
     public ArrayList<Integer> getLoot(int maxWeight){
-        ArrayList<Integer> loot = new ArrayList<>();
-        int lootValue = 0;
-        while(lootValue < maxWeight){
-            int diff = maxWeight-lootValue;
-            Integer[] weights = new Integer[lootTable.size()];
-            weights = lootTable.keySet().toArray(weights);
-            int weight;
-            int tries = 0;
-            while((weight = weights[random.nextInt(weights.length)]) > diff && tries++ < 1000);
-            if(tries == 1000) break;
-
-            loot.add(lootTable.get(weight).get(random.nextInt(lootTable.get(weight).size())));
-            lootValue += weight;
+        return sampler().getLoot(maxWeight, randomSource);
+    }
+
+    /**
+     * Randomly generates a list of items from the loottable.
+     * @param maxWeight This is the maximum amount of weight the items will be worth.
+     * @param random The RandomSource to roll with
+     * @return An ArrayList containing the Template IDs of the generated items.
+     */
+    public ArrayList<Integer> getLoot(int maxWeight, RandomSource random){
+        return sampler().getLoot(maxWeight, random);
+    }
+
+    /**
+     * Randomly generates items from the loottable without allocating,
+     * provided the list has enough capacity.
+     * @param maxWeight This is the maximum amount of weight the items will be worth.
+     * @param loot The list the Template IDs of the generated items are appended to
+     * @return The number of items appended
+     */
+    public int getLoot(int maxWeight, IntList loot){
+        return sampler().getLoot(maxWeight, randomSource, loot);
+    }
+
+    /**
+     * Randomly generates items from the loottable without allocating,
+     * provided the list has enough capacity.
+     * @param maxWeight This is the maximum amount of weight the items will be worth.
+     * @param loot The list the Template IDs of the generated items are appended to
+     * @param random The RandomSource to roll with
+     * @return The number of items appended
+     */
+    public int getLoot(int maxWeight, IntList loot, RandomSource random){
+        return sampler().getLoot(maxWeight, random, loot);
+    }
+
+    /**
+     * Randomly generates items from the loottable without allocating.
+     * Generation stops early if the buffer is full.
+     * @param maxWeight This is the maximum amount of weight the items will be worth.
+     * @param buffer The array the Template IDs of the generated items are written to
+     * @param offset The index of buffer the first Template ID is written to
+     * @return The number of items written
+     */
+    public int getLoot(int maxWeight, int[] buffer, int offset){
+        return sampler().getLoot(maxWeight, randomSource, buffer, offset);
+    }
+
+    /**
+     * Randomly generates items from the loottable without allocating.
+     * Generation stops early if the buffer is full.
+     * @param maxWeight This is the maximum amount of weight the items will be worth.
+     * @param buffer The array the Template IDs of the generated items are written to
+     * @param offset The index of buffer the first Template ID is written to
+     * @param random The RandomSource to roll with
+     * @return The number of items written
+     */
+    public int getLoot(int maxWeight, int[] buffer, int offset, RandomSource random){
+        return sampler().getLoot(maxWeight, random, buffer, offset);
+    }
+
+    /**
+     * Rolls the loottable many times in parallel on the common ForkJoinPool.
+     * The result is the same every time for the same seed.
+     * @param rolls The number of times to roll
+     * @param maxWeight This is the maximum amount of weight the items of one roll will be worth.
+     * @param seed The seed the rolls are made with
+     * @return A LootBatch containing the Template IDs of the generated items of every roll
+     */
+    public LootBatch getLootBatch(int rolls, int maxWeight, long seed){
+        return getLootBatch(rolls, maxWeight, RandomSource.splittable(seed), ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Rolls the loottable many times in parallel on the common ForkJoinPool.
+     * @param rolls The number of times to roll
+     * @param maxWeight This is the maximum amount of weight the items of one roll will be worth.
+     * @param random The RandomSource the independent sources of the parallel tasks are split from
+     * @return A LootBatch containing the Template IDs of the generated items of every roll
+     */
+    public LootBatch getLootBatch(int rolls, int maxWeight, RandomSource random){
+        return getLootBatch(rolls, maxWeight, random, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Rolls the loottable many times in parallel. The result only depends on the state
+     * of random, so a seeded RandomSource gives the same result every time.
+     * @param rolls The number of times to roll
+     * @param maxWeight This is the maximum amount of weight the items of one roll will be worth.
+     * @param random The RandomSource the independent sources of the parallel tasks are split from
+     * @param pool The ForkJoinPool the rolls are done on
+     * @return A LootBatch containing the Template IDs of the generated items of every roll
+     */
+    public LootBatch getLootBatch(int rolls, int maxWeight, RandomSource random, ForkJoinPool pool){
+        return LootBatch.generate(sampler(), rolls, maxWeight, random, pool);
+    }
+
+    /**
+     * Returns the LootSampler used to generate loot
+     */
+    public LootSampler getSampler() {
+        return sampler();
+    }
+
+    /**
+     * Sets the LootSampler used to generate loot, and replaces the groups of lootTable with its groups
+     * @param _sampler The new LootSampler
+     */
+    public void setSampler(LootSampler _sampler) {
+        if(_sampler == null) {
+            throw new IllegalArgumentException("sampler must not be null.");
+        }
+        synchronized(this){
+            LootGroups groups = (LootGroups)lootTable;
+            groups.setGroups(_sampler);
+            templateCheck = checkTemplates(_sampler);
+            sampler = _sampler;
+            compiledVersion = groups.getVersion();
+        }
+    }
+
+    /**
+     * Returns the RandomSource this LootTable rolls with when one is not supplied
+     */
+    public RandomSource getRandomSource() {
+        return randomSource;
+    }
+
+    /**
+     * Sets the RandomSource this LootTable rolls with when one is not supplied.
+     * It must be thread safe if the LootTable is used from several threads.
+     * @param _randomSource The new RandomSource
+     */
+    public void setRandomSource(RandomSource _randomSource) {
+        if(_randomSource == null) {
+            throw new IllegalArgumentException("randomSource must not be null.");
         }
-        return loot;
+        randomSource = _randomSource;
+    }
+
+    /**
+     * The number of coin denominations
+     */
+    public static final int coinDenominations = 12;
+    /**
+     * The Template IDs of the coins from the most to the least valuable
+     */
+    private static final int[] coinTemplateIds = {
+            61, 57, 53, // gold-twenty, gold-five, gold coins
+            60, 56, 52, // silver-twenty, silver-five, silver coins
+            58, 54, 50, // copper-twenty, copper-five, copper coins
+            59, 55, 51  // iron-twenty, iron-five, iron coins
+    };
+    private static final int[] coinValues = {
+            goldTwenty, goldFive, goldPenny,
+            silverTwenty, silverFive, silverPenny,
+            copperTwenty, copperFive, copperPenny,
+            ironTwenty, ironFive, ironPenny
+    };
+
+    /**
+     * Returns the Template ID of a coin denomination
+     * @param denomination The index of the denomination, zero being gold-twenty coins
+     *                     and coinDenominations-1 being iron coins
+     */
+    public static int getCoinTemplateId(int denomination){
+        return coinTemplateIds[denomination];
+    }
+
+    /**
+     * Returns the value of a coin denomination in irons
+     * @param denomination The index of the denomination, zero being gold-twenty coins
+     *                     and coinDenominations-1 being iron coins
+     */
+    public static int getCoinValue(int denomination){
+        return coinValues[denomination];
+    }
+
+    /**
+     * Returns how many coins of each denomination make up the value
+     * with the fewest possible coins.
+     * @param moneyPool The value of the coins in irons
+     * @return An int array of length coinDenominations, with the number of gold-twenty
+     *         coins at index zero and the number of iron coins at the last index
+     */
+    public static int[] countCoins(int moneyPool){
+        return countCoins(moneyPool, new int[coinDenominations]);
+    }
+
+    /**
+     * Returns how many coins of each denomination make up the value
+     * with the fewest possible coins.
+     * @param moneyPool The value of the coins in irons
+     * @param counts The array of at least length coinDenominations the counts are written to,
+     *               with the number of gold-twenty coins at index zero
+     * @return counts
+     */
+    public static int[] countCoins(int moneyPool, int[] counts){
+        if(moneyPool < 0) {
+            throw new IllegalArgumentException("moneyPool must not be negative.");
+        }
+        for(int i = 0; i < coinDenominations; ++i){
+            counts[i] = moneyPool / coinValues[i];
+            moneyPool %= coinValues[i];
+        }
+        return counts;
     }
 
     /**
      * Returns the appropriate types of coins for a given value. It will be
      * the fewest possible coins for that value.
-     * @param moneyPool The value of the coins to be generated.
+     * @param moneyPool The value of the coins to be generated. A negative value gives no coins.
      * @return An ArrayList containing the templateIds of the generated coins.
      */
     public static ArrayList<Integer> generateCoins(int moneyPool){
-        // Probably could use this guy below but idk
-        // Economy.getEconomy().getCoinsFor(moneyPool);
-
-        int currentItemTemplate = 61; // gold-twenty coins
-        ArrayList<Integer> coins = new ArrayList<>(createCoins(currentItemTemplate, moneyPool, goldTwenty));
-        moneyPool %= goldTwenty;
-        currentItemTemplate = 57; // gold-five coins
-        coins.addAll(createCoins(currentItemTemplate, moneyPool, goldFive));
-        moneyPool %= goldFive;
-        currentItemTemplate = 53; // gold coins
-        coins.addAll(createCoins(currentItemTemplate, moneyPool, goldPenny));
-        moneyPool %= goldPenny;
-        currentItemTemplate = 60; // silver-twenty coins
-        coins.addAll(createCoins(currentItemTemplate, moneyPool, silverTwenty));
-        moneyPool %= silverTwenty;
-        currentItemTemplate = 56; // silver-five coins
-        coins.addAll(createCoins(currentItemTemplate, moneyPool, silverFive));
-        moneyPool %= silverFive;
-        currentItemTemplate = 52; // silver coins
-        coins.addAll(createCoins(currentItemTemplate, moneyPool, silverPenny));
-        moneyPool %= silverPenny;
-        currentItemTemplate = 58; // copper-twenty coins
-        coins.addAll(createCoins(currentItemTemplate, moneyPool, copperTwenty));
-        moneyPool %= copperTwenty;
-        currentItemTemplate = 54; // copper-five coins
-        coins.addAll(createCoins(currentItemTemplate, moneyPool, copperFive));
-        moneyPool %= copperFive;
-        currentItemTemplate = 50; // copper coins
-        coins.addAll(createCoins(currentItemTemplate, moneyPool, copperPenny));
-        moneyPool %= copperPenny;
-        currentItemTemplate = 59; // iron-twenty coins
-        coins.addAll(createCoins(currentItemTemplate, moneyPool, ironTwenty));
-        moneyPool %= ironTwenty;
-        currentItemTemplate = 55; // iron-five coins
-        coins.addAll(createCoins(currentItemTemplate, moneyPool, ironFive));
-        moneyPool %= ironFive;
-        currentItemTemplate = 51; // iron coins
-        coins.addAll(createCoins(currentItemTemplate, moneyPool, ironPenny));
+        // countCoins() rejects negative values, these return no coins for them
+        moneyPool = Math.max(moneyPool, 0);
+        int[] counts = countCoins(moneyPool);
+        int total = 0;
+        for(int count : counts)
+            total += count;
 
+        ArrayList<Integer> coins = new ArrayList<>(total);
+        for(int i = 0; i < coinDenominations; ++i){
+            Integer templateId = coinTemplateIds[i];
+            for(int j = 0; j < counts[i]; ++j)
+                coins.add(templateId);
+        }
+        coinsGenerated.add(total);
+        coinsGeneratedValue.add(moneyPool);
         return coins;
     }
-    private static ArrayList<Integer> createCoins(int templateId, int moneyPool, int steps){
-        ArrayList<Integer> coins = new ArrayList<>();
-        while(moneyPool >= steps){
-            coins.add(templateId);
-            moneyPool -= steps;
+
+    /**
+     * Creates the fewest possible coins for a given value. Coins do not stack,
+     * so this is still one Item per coin, but the counts are worked out up front
+     * and the list is allocated once.
+     * @param moneyPool The value of the coins to be created in irons. A negative value gives no coins.
+     * @return ArrayList<Item> containing the created coins, the most valuable first
+     */
+    public static ArrayList<Item> createCoins(int moneyPool)
+            throws FailedException {
+        return createCoins(moneyPool, CommonLibrary.randomSource);
+    }
+
+    /**
+     * Creates the fewest possible coins for a given value. Coins do not stack,
+     * so this is still one Item per coin, but the counts are worked out up front
+     * and the list is allocated once.
+     * @param moneyPool The value of the coins to be created in irons. A negative value gives no coins.
+     * @param random The RandomSource to roll the quality of the coins with
+     * @return ArrayList<Item> containing the created coins, the most valuable first
+     */
+    public static ArrayList<Item> createCoins(int moneyPool, RandomSource random)
+            throws FailedException {
+        // countCoins() rejects negative values, these return no coins for them
+        moneyPool = Math.max(moneyPool, 0);
+        int[] counts = countCoins(moneyPool);
+        int total = 0;
+        for(int count : counts)
+            total += count;
+
+        ArrayList<Item> coins = new ArrayList<>(total);
+        for(int i = 0; i < coinDenominations; ++i){
+            if(counts[i] == 0) continue;
+            try {
+                for(int j = 0; j < counts[i]; ++j)
+                    coins.add(ItemFactory.createItem(coinTemplateIds[i], randomQuality(random), (byte)0, null));
+            }catch(NoSuchTemplateException e){
+                templateFailures.increment();
+                logger.severe("Template ID not found for coin: "+coinTemplateIds[i]);
+                logger.severe(e.getMessage());
+            }
         }
+        coinsCreated.add(coins.size());
+        coinsCreatedValue.add(moneyPool);
         return coins;
     }
 
@@ -130,6 +415,15 @@ public class LootTable {
      * @return A float between 0 and 100;
      */
     public static float randomQuality(){
+        return randomQuality(CommonLibrary.randomSource);
+    }
+
+    /**
+     * Returns a random quality.
+     * @param random The RandomSource to roll with
+     * @return A float between 0 and 100;
+     */
+    public static float randomQuality(RandomSource random){
         return random.nextInt(100)+random.nextFloat();
     }
 
@@ -138,7 +432,16 @@ public class LootTable {
      * @return A random byte between 0 and 3 (inclusive)
      */
     public byte randomRarity(){
-        return randomRarity(rareChance, supremeChance, fantasticChance);
+        return rarityRoller.roll(randomSource);
+    }
+
+    /**
+     * Returns a random rarity.
+     * @param random The RandomSource to roll with
+     * @return A random byte between 0 and 3 (inclusive)
+     */
+    public byte randomRarity(RandomSource random){
+        return rarityRoller.roll(random);
     }
 
     /**
@@ -150,11 +453,44 @@ public class LootTable {
      * @return A random byte between 0 and 3 (inclusive)
      */
     public static byte randomRarity(float rare, float supreme, float fantastic){
-        byte rarity = 0;
-        if(random.nextFloat() <= rare) rarity = 1;
-        if(random.nextFloat() <= supreme) rarity = 2;
-        if(random.nextFloat() <= fantastic) rarity = 3;
-        return rarity;
+        return randomRarity(rare, supreme, fantastic, CommonLibrary.randomSource);
+    }
+
+    /**
+     * Returns a random rarity. If two rarities are rolled
+     * to be set, the better one is returned. This takes a single draw,
+     * see RarityRoller.
+     * @param rare The chance of any one item being Rare [0..1]
+     * @param supreme The chance of any one item being Supreme [0..1]
+     * @param fantastic The chance of any one item being Fantastic [0..1]
+     * @param random The RandomSource to roll with
+     * @return A random byte between 0 and 3 (inclusive)
+     */
+    public static byte randomRarity(float rare, float supreme, float fantastic, RandomSource random){
+        return rollerFor(rare, supreme, fantastic).roll(random);
+    }
+
+    /**
+     * Returns a RarityRoller for the chances of the static methods, which take chances outside of
+     * [0..1] like they always did, a chance below zero never hits and one above one always does.
+     * The last one made is reused, as these are usually called with the same chances over and over.
+     */
+    private static RarityRoller rollerFor(float rare, float supreme, float fantastic){
+        rare = clampChance(rare);
+        supreme = clampChance(supreme);
+        fantastic = clampChance(fantastic);
+        RarityRoller roller = lastStaticRoller;
+        if(roller.getRareChance() != rare || roller.getSupremeChance() != supreme
+                || roller.getFantasticChance() != fantastic) {
+            roller = new RarityRoller(rare, supreme, fantastic);
+            lastStaticRoller = roller;
+        }
+        return roller;
+    }
+
+    private static float clampChance(float chance){
+        // NaN never hit either
+        return chance > 0 ? Math.min(chance, 1) : 0;
     }
 
     /**
@@ -165,7 +501,98 @@ public class LootTable {
      */
     public ArrayList<Item> createItems(ArrayList<Integer> templates)
             throws FailedException {
-        return createItems(templates, rareChance, supremeChance, fantasticChance);
+        int[] templateIds = toArray(templates);
+        return createItems(rollItems(templateIds, true, rarityRoller,
+                qualityDistribution, randomSource), getInvalidTemplateIds());
+    }
+
+    /**
+     * Generates items of random quality and rarity from the supplied Template IDs
+     * Chances for items being rare+ are that returned by get
+     * @param templates The Template IDs to generate items from
+     * @param shuffle Whether the order of the items should be shuffled
+     * @return ArrayList<Item> containing a list of the items generated
+     */
+    public ArrayList<Item> createItems(IntList templates, boolean shuffle)
+            throws FailedException {
+        int[] templateIds = templates.toArray();
+        return createItems(rollItems(templateIds, shuffle, rarityRoller,
+                qualityDistribution, randomSource), getInvalidTemplateIds());
+    }
+
+    /**
+     * Generates items of random quality and rarity from the supplied Template IDs
+     * Chances for items being rare+ are that returned by get
+     * @param templateIds Array of Template IDs to generate items from
+     * @param from The index of the first Template ID, inclusive
+     * @param to The index of the last Template ID, exclusive
+     * @param shuffle Whether the order of the items should be shuffled
+     * @return ArrayList<Item> containing a list of the items generated
+     */
+    public ArrayList<Item> createItems(int[] templateIds, int from, int to, boolean shuffle)
+            throws FailedException {
+        return createItems(rollItems(templateIds, from, to, shuffle), getInvalidTemplateIds());
+    }
+
+    /**
+     * Rolls the qualities and rarities of items from the supplied Template IDs without creating them.
+     * This only uses the RandomSource of this LootTable, so it may be called on any thread
+     * if the RandomSource is thread safe. The items are created by createItems(ItemRolls).
+     * @param templateIds Array of Template IDs to roll items from. It is not changed.
+     * @param from The index of the first Template ID, inclusive
+     * @param to The index of the last Template ID, exclusive
+     * @param shuffle Whether the order of the items should be shuffled
+     * @return The rolled items
+     */
+    public ItemRolls rollItems(int[] templateIds, int from, int to, boolean shuffle){
+        return rollItems(Arrays.copyOfRange(templateIds, from, to), shuffle,
+                rarityRoller, qualityDistribution, randomSource);
+    }
+
+    /**
+     * Rolls items like rollItems(), but on the executor returned by getRollExecutor().
+     * The Template IDs are copied before returning, so the array may be reused right away.
+     * The items still have to be created with createItems(ItemRolls) on the server thread.
+     * @param templateIds Array of Template IDs to roll items from
+     * @param from The index of the first Template ID, inclusive
+     * @param to The index of the last Template ID, exclusive
+     * @param shuffle Whether the order of the items should be shuffled
+     * @return A CompletableFuture completed with the rolled items
+     */
+    public CompletableFuture<ItemRolls> rollItemsAsync(int[] templateIds, int from, int to, boolean shuffle){
+        return rollItemsAsync(templateIds, from, to, shuffle, getRollExecutor());
+    }
+
+    /**
+     * Rolls items like rollItems(), but on the supplied executor.
+     * The Template IDs are copied before returning, so the array may be reused right away.
+     * The RandomSource of this LootTable must be thread safe.
+     * The items still have to be created with createItems(ItemRolls) on the server thread.
+     * @param templateIds Array of Template IDs to roll items from
+     * @param from The index of the first Template ID, inclusive
+     * @param to The index of the last Template ID, exclusive
+     * @param shuffle Whether the order of the items should be shuffled
+     * @param executor The executor the items are rolled on
+     * @return A CompletableFuture completed with the rolled items
+     */
+    public CompletableFuture<ItemRolls> rollItemsAsync(int[] templateIds, int from, int to, boolean shuffle,
+                                                       Executor executor){
+        int[] copy = Arrays.copyOfRange(templateIds, from, to);
+        RarityRoller roller = rarityRoller;
+        QualityDistribution quality = qualityDistribution;
+        RandomSource random = randomSource;
+        return CompletableFuture.supplyAsync(() -> rollItems(copy, shuffle, roller, quality, random), executor);
+    }
+
+    /**
+     * Creates items rolled by rollItems() or rollItemsAsync().
+     * This must be called on the server thread, as creating items is not thread safe.
+     * @param rolls The rolled items
+     * @return ArrayList<Item> containing a list of the items generated
+     */
+    public ArrayList<Item> createItems(ItemRolls rolls)
+            throws FailedException {
+        return createItems(rolls, getInvalidTemplateIds());
     }
 
     /**
@@ -178,22 +605,205 @@ public class LootTable {
      */
     public static ArrayList<Item> createItems(ArrayList<Integer> templates, float rare, float supreme, float fantastic)
             throws FailedException {
-        ArrayList<Item> items = new ArrayList<>();
+        return createItems(templates, rare, supreme, fantastic, CommonLibrary.randomSource);
+    }
+
+    /**
+     * Generates items of random quality and rarity from the supplied Template IDs
+     * @param templates Array of Template IDs to generate items from
+     * @param rare The chance of any one item being Rare
+     * @param supreme The chance of any one item being Supreme
+     * @param fantastic The chance of any one item being Fantastic
+     * @param random The RandomSource to roll with
+     * @return ArrayList<Item> containing a list of the items generated
+     */
+    public static ArrayList<Item> createItems(ArrayList<Integer> templates, float rare, float supreme, float fantastic,
+                                              RandomSource random)
+            throws FailedException {
+        int[] templateIds = toArray(templates);
+        return createItems(rollItems(templateIds, true, rollerFor(rare, supreme, fantastic),
+                QualityDistribution.uniform(), random), null);
+    }
+
+    /**
+     * Rolls the items. The Template IDs are shuffled in place, which gives the same order
+     * as shuffling the items afterwards. The rarities of all items are rolled up front,
+     * skipping ahead to the rare+ ones.
+     */
+    private static ItemRolls rollItems(int[] templateIds, boolean shuffle, RarityRoller roller,
+                                       QualityDistribution quality, RandomSource random){
+        int count = templateIds.length;
+        if(shuffle) {
+            for(int i = count - 1; i > 0; --i){
+                int j = random.nextInt(i + 1);
+                int tmp = templateIds[i];
+                templateIds[i] = templateIds[j];
+                templateIds[j] = tmp;
+            }
+        }
 
-        for(int currentTemplateId : templates) {
+        byte[] rarities = new byte[count];
+        roller.fill(rarities, 0, count, random);
+
+        float[] qualities = new float[count];
+        for(int i = 0; i < count; ++i)
+            qualities[i] = quality.sample(random);
+        return new ItemRolls(templateIds, qualities, rarities);
+    }
+
+    /**
+     * Creates the rolled items. Template IDs found in invalidTemplateIds
+     * are skipped without trying to create them.
+     */
+    private static ArrayList<Item> createItems(ItemRolls rolls, int[] invalidTemplateIds)
+            throws FailedException {
+        long start = System.nanoTime();
+        int count = rolls.getCount();
+        ArrayList<Item> items = new ArrayList<>(count);
+        for(int i = 0; i < count; ++i) {
+            int currentTemplateId = rolls.getTemplateId(i);
+            if(invalidTemplateIds != null && Arrays.binarySearch(invalidTemplateIds, currentTemplateId) >= 0) {
+                invalidTemplatesSkipped.increment();
+                continue;
+            }
             try {
                 items.add(ItemFactory.createItem(currentTemplateId,
-                        randomQuality(), randomRarity(rare, supreme, fantastic), null));
+                        rolls.getQuality(i), rolls.getRarity(i), null));
             }catch(NoSuchTemplateException e){
+                templateFailures.increment();
                 logger.severe("Template ID not found for: "+currentTemplateId);
                 logger.severe(e.getMessage());
             }
         }
-
-        Collections.shuffle(items);
+        itemsCreated.add(items.size());
+        createItemsNanos.recordNanosSince(start);
         return items;
     }
 
+    private static int[] toArray(ArrayList<Integer> templates){
+        int[] templateIds = new int[templates.size()];
+        for(int i = 0; i < templateIds.length; ++i)
+            templateIds[i] = templates.get(i);
+        return templateIds;
+    }
+
+    /**
+     * Returns the Template IDs of this LootTable that do not exist on the server.
+     * They are checked and logged whenever the loot is set or compiled, and createItems
+     * skips them without trying to create them. As mods may add their templates later,
+     * the ones that did not exist are checked again by createItems and this method,
+     * and are no longer skipped once they exist.
+     * @return A sorted array of the Template IDs that do not exist
+     */
+    public int[] validateTemplates(){
+        return getInvalidTemplateIds().clone();
+    }
+
+    private int[] getInvalidTemplateIds(){
+        LootSampler current = sampler();
+        TemplateCheck check = templateCheck;
+        if(check.sampler != current){
+            // Only if setSampler() was called between the two reads
+            check = checkTemplates(current);
+        }else if(check.invalidTemplateIds.length > 0){
+            int[] invalid = findInvalid(check.invalidTemplateIds, false);
+            if(invalid.length != check.invalidTemplateIds.length) {
+                check = new TemplateCheck(current, invalid);
+                templateCheck = check;
+            }
+        }
+        return check.invalidTemplateIds;
+    }
+
+    /**
+     * Checks every Template ID of the sampler, and logs the ones that do not exist
+     */
+    private static TemplateCheck checkTemplates(LootSampler sampler){
+        IntList templateIds = new IntList(0);
+        HashSet<Integer> checked = new HashSet<>();
+        for(int group = 0; group < sampler.getGroupCount(); ++group){
+            for(int item = 0; item < sampler.getGroupSize(group); ++item){
+                int templateId = sampler.getTemplateId(group, item);
+                if(checked.add(templateId)) templateIds.add(templateId);
+            }
+        }
+        return new TemplateCheck(sampler, findInvalid(templateIds.toArray(), true));
+    }
+
+    /**
+     * Returns the sorted Template IDs that do not exist on the server
+     * @param log Whether they should be logged
+     */
+    private static int[] findInvalid(int[] templateIds, boolean log){
+        IntList invalid = new IntList(0);
+        ItemTemplateFactory factory = ItemTemplateFactory.getInstance();
+        for(int templateId : templateIds){
+            if(factory.getTemplateOrNull(templateId) == null) {
+                if(log) logger.severe("LootTable contains a Template ID that does not exist: "+templateId);
+                invalid.add(templateId);
+            }
+        }
+        int[] invalidTemplateIds = invalid.toArray();
+        Arrays.sort(invalidTemplateIds);
+        return invalidTemplateIds;
+    }
+
+    /**
+     * The Template IDs of a sampler that did not exist on the server when last checked.
+     */
+    private static final class TemplateCheck {
+        final LootSampler sampler;
+        final int[] invalidTemplateIds;
+
+        TemplateCheck(LootSampler sampler, int[] invalidTemplateIds){
+            this.sampler = sampler;
+            this.invalidTemplateIds = invalidTemplateIds;
+        }
+    }
+
+    /**
+     * Returns the executor rollItemsAsync uses by default. It has a single
+     * daemon thread and a bounded queue. When the queue is full, the items
+     * are rolled on the calling thread instead.
+     */
+    public static Executor getRollExecutor(){
+        return RollExecutorHolder.executor;
+    }
+
+    private static final class RollExecutorHolder {
+        static final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1,
+                0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(256), r -> {
+                    Thread thread = new Thread(r, "CommonLibrary-ItemRolls");
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Returns the distribution the quality of items generated by this LootTable is drawn from
+     */
+    public QualityDistribution getQualityDistribution() {
+        return qualityDistribution;
+    }
+
+    /**
+     * Sets the distribution the quality of items generated by this LootTable is drawn from
+     * @param _qualityDistribution The new distribution
+     */
+    public void setQualityDistribution(QualityDistribution _qualityDistribution) {
+        if(_qualityDistribution == null) {
+            throw new IllegalArgumentException("qualityDistribution must not be null.");
+        }
+        qualityDistribution = _qualityDistribution;
+    }
+
+    /**
+     * Returns the RarityRoller made from the rarity chances of this LootTable
+     */
+    public RarityRoller getRarityRoller() {
+        return rarityRoller;
+    }
+
     public float getRareChance() {
         return rareChance;
     }
@@ -208,6 +818,7 @@ public class LootTable {
             throw new IllegalArgumentException("chance must be a float between zero and one, inclusive.");
         }
         rareChance = _rareChance;
+        rarityRoller = new RarityRoller(rareChance, supremeChance, fantasticChance);
     }
 
     public float getSupremeChance() {
@@ -224,6 +835,7 @@ public class LootTable {
             throw new IllegalArgumentException("chance must be a float between zero and one, inclusive.");
         }
         supremeChance = _supremeChance;
+        rarityRoller = new RarityRoller(rareChance, supremeChance, fantasticChance);
     }
 
     public float getFantasticChance() {
@@ -240,6 +852,7 @@ public class LootTable {
             throw new IllegalArgumentException("chance must be a float between zero and one, inclusive.");
         }
         fantasticChance = _fantasticChance;
+        rarityRoller = new RarityRoller(rareChance, supremeChance, fantasticChance);
     }
 
     /**
@@ -260,5 +873,6 @@ public class LootTable {
         rareChance = _rareChance;
         supremeChance = _supremeChance;
         fantasticChance = _fantasticChance;
+        rarityRoller = new RarityRoller(rareChance, supremeChance, fantasticChance);
     }
 }
\ No newline at end of file
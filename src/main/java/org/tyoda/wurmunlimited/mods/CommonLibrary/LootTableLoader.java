@@ -0,0 +1,369 @@
+package org.tyoda.wurmunlimited.mods.CommonLibrary;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import static org.tyoda.wurmunlimited.mods.CommonLibrary.CommonLibrary.logger;
+
+/**
+ * Builds LootTables from a section of a SimpleProperties. In a section named goblin:
+ * <pre>
+ * goblin.group.coins.cost=5
+ * goblin.group.coins.ids=50-61
+ * goblin.group.weapons.cost=20
+ * goblin.group.weapons.chance=0.5
+ * goblin.group.weapons.ids=3,21,80-83
+ * goblin.rareChance=0.01
+ * goblin.supremeChance=0.001
+ * goblin.fantasticChance=0.0001
+ * </pre>
+ * Every group needs a cost and its ids. If any group has a chance, the groups are picked
+ * according to their chance, the others having a chance of 1. Otherwise they are picked
+ * uniformly, like LootTable always has. Keys like goblin.20=3,21 are also read,
+ * as a group with that cost and those ids. An empty section name reads the keys without a prefix.
+ * <p>
+ * If a cache directory is given, the compiled table is written there, keyed by a hash
+ * of the keys of the section and the delimiter. Later loads of an unchanged section read
+ * the cache file instead of parsing the ids and compiling the table again.
+ * The file is named after the section and the start of the hash, so sections of the same
+ * name in different properties files do not overwrite each other's cache. Files of earlier
+ * versions of a section are left in the directory, it may be cleared at any time.
+ * The ids are separated by the default delimiter of the properties.
+ * A missing, stale or damaged cache file is simply written again.
+ */
+public final class LootTableLoader {
+    /**
+     * Changed whenever the layout of the cache files changes, so old files are not read
+     */
+    public static final int cacheFormatVersion = 2;
+    private static final int cacheMagic = 0x4C4F4F54; // LOOT
+    private static final int hashLength = 32;
+    /**
+     * The number of bytes of the hash in the names of the cache files
+     */
+    private static final int fileHashLength = 4;
+    /**
+     * Magic, version, hash, weighted flag, group count, template ID count and the checksum of the rest
+     */
+    private static final int headerLength = 4 + 4 + hashLength + 4 + 4 + 4 + 4;
+
+    private final Path cacheDirectory;
+
+    /**
+     * Initializes a LootTableLoader that compiles every table and caches nothing.
+     */
+    public LootTableLoader(){
+        this(null);
+    }
+
+    /**
+     * Initializes a LootTableLoader that caches the compiled tables.
+     * @param cacheDirectory The directory of the cache files. Created if it does not exist. Null disables the cache.
+     */
+    public LootTableLoader(Path cacheDirectory){
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    public Path getCacheDirectory(){
+        return cacheDirectory;
+    }
+
+    /**
+     * Builds a LootTable from the section, with its rarity chances.
+     * @param properties The properties the section is in
+     * @param section The prefix of the keys, without the dot
+     * @return The LootTable
+     * @throws IllegalArgumentException If the section has no groups or a group is invalid
+     */
+    public LootTable load(SimpleProperties properties, String section){
+        LootTable lootTable = new LootTable(loadSampler(properties, section));
+        String prefix = prefix(section);
+        lootTable.setRarityChances(
+                properties.getFloat(prefix + "rareChance", lootTable.getRareChance()),
+                properties.getFloat(prefix + "supremeChance", lootTable.getSupremeChance()),
+                properties.getFloat(prefix + "fantasticChance", lootTable.getFantasticChance()));
+        return lootTable;
+    }
+
+    /**
+     * Builds the LootSampler of the section, from the cache if it is up to date.
+     * @param properties The properties the section is in
+     * @param section The prefix of the keys, without the dot
+     * @return The LootSampler
+     * @throws IllegalArgumentException If the section has no groups or a group is invalid
+     */
+    public LootSampler loadSampler(SimpleProperties properties, String section){
+        String prefix = prefix(section);
+        TreeMap<String, String> entries = new TreeMap<>();
+        for(String key : properties.stringPropertyNames())
+            if(key.startsWith(prefix)) entries.put(key.substring(prefix.length()), properties.getProperty(key));
+
+        String delimiter = properties.getDefaultDelimiter();
+        if(cacheDirectory == null) return compile(entries, section, delimiter);
+
+        byte[] hash = hash(entries, delimiter);
+        Path cacheFile = cacheDirectory.resolve(cacheFileName(section, hash));
+        if(Files.isRegularFile(cacheFile)) {
+            try{
+                LootSampler cached = readCache(cacheFile, hash);
+                if(cached != null) return cached;
+            }catch(IOException | RuntimeException e){
+                logger.severe("Could not read loot table cache " + cacheFile + ", compiling it again: " + e);
+            }
+        }
+
+        LootSampler sampler = compile(entries, section, delimiter);
+        try{
+            writeCache(cacheFile, hash, sampler);
+            // Named after the section only, which is never read again
+            Files.deleteIfExists(cacheDirectory.resolve(sanitize(section) + ".lootcache"));
+        }catch(IOException e){
+            logger.severe("Could not write loot table cache " + cacheFile + ": " + e);
+        }
+        return sampler;
+    }
+
+    private static String prefix(String section){
+        return section.isEmpty() ? "" : section + ".";
+    }
+
+    /**
+     * Sections that sanitize to the same name, like goblin.boss and goblin_boss,
+     * only share a file if their keys hash the same, so their tables are the same as well.
+     */
+    private static String cacheFileName(String section, byte[] hash){
+        StringBuilder name = new StringBuilder(sanitize(section)).append('-');
+        for(int i = 0; i < fileHashLength; ++i)
+            name.append(Character.forDigit((hash[i] >> 4) & 0xF, 16)).append(Character.forDigit(hash[i] & 0xF, 16));
+        return name.append(".lootcache").toString();
+    }
+
+    private static String sanitize(String section){
+        StringBuilder name = new StringBuilder(section.isEmpty() ? "default" : section);
+        for(int i = 0; i < name.length(); ++i){
+            char c = name.charAt(i);
+            if(!(Character.isLetterOrDigit(c) || c == '-' || c == '_')) name.setCharAt(i, '_');
+        }
+        return name.toString();
+    }
+
+    /**
+     * Compiles the groups of the section
+     * @param entries The keys of the section without the prefix, mapped to their values
+     * @param delimiter The string the ids are separated by
+     */
+    private static LootSampler compile(TreeMap<String, String> entries, String section, String delimiter){
+        TreeMap<String, String[]> named = new TreeMap<>();
+        ArrayList<Integer> costs = new ArrayList<>();
+        ArrayList<Float> chances = new ArrayList<>();
+        ArrayList<int[]> groups = new ArrayList<>();
+        boolean weighted = false;
+
+        for(String key : entries.keySet()){
+            if(key.startsWith("group.")) {
+                int dot = key.lastIndexOf('.');
+                String name = key.substring("group.".length(), Math.max(dot, "group.".length()));
+                String[] fields = named.computeIfAbsent(name, n -> new String[3]);
+                switch(key.substring(dot + 1)){
+                    case "cost": fields[0] = entries.get(key); break;
+                    case "chance": fields[1] = entries.get(key); break;
+                    case "ids": fields[2] = entries.get(key); break;
+                    default: throw new IllegalArgumentException("Unknown loot table key: " + prefix(section) + key);
+                }
+                continue;
+            }
+            int cost;
+            try{
+                cost = Integer.parseInt(key.trim());
+            }catch(NumberFormatException e){
+                continue;
+            }
+            costs.add(cost);
+            chances.add(1f);
+            groups.add(SimpleProperties.parseIntArray(entries.get(key), delimiter));
+        }
+
+        for(String name : named.keySet()){
+            String[] fields = named.get(name);
+            String group = prefix(section) + "group." + name;
+            if(fields[0] == null || fields[2] == null) {
+                throw new IllegalArgumentException("The loot table group " + group + " needs both a cost and ids.");
+            }
+            try{
+                costs.add(Integer.parseInt(fields[0].trim()));
+                chances.add(fields[1] == null ? 1f : Float.parseFloat(fields[1].trim()));
+                groups.add(SimpleProperties.parseIntArray(fields[2], delimiter));
+            }catch(NumberFormatException e){
+                throw new IllegalArgumentException("The loot table group " + group + " is invalid: " + e.getMessage(), e);
+            }
+            weighted |= fields[1] != null;
+        }
+
+        if(groups.isEmpty()) {
+            throw new IllegalArgumentException("The loot table section " + section + " has no groups.");
+        }
+        int[] costArray = new int[costs.size()];
+        float[] chanceArray = new float[chances.size()];
+        for(int i = 0; i < costArray.length; ++i){
+            costArray[i] = costs.get(i);
+            chanceArray[i] = chances.get(i);
+        }
+        int[][] templateIds = groups.toArray(new int[0][]);
+        return weighted
+                ? LootSampler.weighted(costArray, chanceArray, templateIds)
+                : LootSampler.uniform(costArray, templateIds);
+    }
+
+    /**
+     * Hashes the entries of the section, together with the delimiter and the cache format version
+     */
+    private static byte[] hash(TreeMap<String, String> entries, String delimiter){
+        MessageDigest digest;
+        try{
+            digest = MessageDigest.getInstance("SHA-256");
+        }catch(NoSuchAlgorithmException e){
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+        digest.update(ByteBuffer.allocate(4).putInt(cacheFormatVersion).array());
+        digest.update(delimiter.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte)0);
+        for(String key : entries.keySet()){
+            digest.update(key.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte)0);
+            digest.update(entries.get(key).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte)'\n');
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Reads the cache file into memory and the sampler from it. The file is read rather than
+     * mapped, as a mapping is only released by the garbage collector, and on Windows a mapped
+     * file can not be replaced by writeCache.
+     * @return The sampler, or null if the file is for another version of the section
+     */
+    private static LootSampler readCache(Path cacheFile, byte[] hash) throws IOException {
+        ByteBuffer buffer;
+        try(FileChannel channel = FileChannel.open(cacheFile, StandardOpenOption.READ)){
+            long size = channel.size();
+            if(size > Integer.MAX_VALUE) throw new IOException("The cache file is too large.");
+            buffer = ByteBuffer.allocate((int)size);
+            while(buffer.hasRemaining()){
+                if(channel.read(buffer) < 0) throw new IOException("The cache file ended early.");
+            }
+        }
+        buffer.flip();
+        if(buffer.remaining() < headerLength || buffer.getInt() != cacheMagic || buffer.getInt() != cacheFormatVersion)
+            return null;
+        byte[] cachedHash = new byte[hashLength];
+        buffer.get(cachedHash);
+        if(!MessageDigest.isEqual(hash, cachedHash)) return null;
+
+        boolean weighted = buffer.getInt() != 0;
+        int groups = buffer.getInt();
+        int items = buffer.getInt();
+        int checksum = buffer.getInt();
+        long aliasLength = weighted ? (long)groups * (groups + 1) / 2 : 0;
+        long expected = headerLength + 4L * (3L * groups + 1 + items + 2 * aliasLength);
+        if(groups <= 0 || items <= 0 || buffer.capacity() != expected) {
+            throw new IOException("The cache file has the wrong length.");
+        }
+        // Fits, as the whole file does
+        int aliasSize = (int)aliasLength;
+        if(checksum(buffer) != checksum) {
+            throw new IOException("The cache file is damaged, its checksum does not match.");
+        }
+
+        int[] costs = new int[groups];
+        float[] chances = new float[groups];
+        int[] groupOffsets = new int[groups + 1];
+        int[] templateIds = new int[items];
+        buffer.asIntBuffer().get(costs);
+        buffer.position(buffer.position() + 4 * groups);
+        buffer.asFloatBuffer().get(chances);
+        buffer.position(buffer.position() + 4 * groups);
+        buffer.asIntBuffer().get(groupOffsets);
+        buffer.position(buffer.position() + 4 * (groups + 1));
+        buffer.asIntBuffer().get(templateIds);
+        buffer.position(buffer.position() + 4 * items);
+        float[] aliasProbability = null;
+        int[] alias = null;
+        if(weighted){
+            aliasProbability = new float[aliasSize];
+            alias = new int[aliasSize];
+            buffer.asFloatBuffer().get(aliasProbability);
+            buffer.position(buffer.position() + 4 * aliasSize);
+            buffer.asIntBuffer().get(alias);
+        }
+        return LootSampler.compiled(costs, chances, templateIds, groupOffsets, weighted, aliasProbability, alias);
+    }
+
+    /**
+     * Returns the CRC32 of the rest of the buffer, without moving its position.
+     * The hash only covers the section, this catches damage to the compiled table.
+     */
+    private static int checksum(ByteBuffer buffer){
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate());
+        return (int)crc.getValue();
+    }
+
+    /**
+     * Writes the cache file to a temporary file first, then moves it in place,
+     * so a crash never leaves half a cache file behind.
+     */
+    private void writeCache(Path cacheFile, byte[] hash, LootSampler sampler) throws IOException {
+        int[] costs = sampler.compiledCosts();
+        float[] chances = sampler.compiledChances();
+        int[] groupOffsets = sampler.compiledGroupOffsets();
+        int[] templateIds = sampler.compiledTemplateIds();
+        float[] aliasProbability = sampler.isWeighted() ? sampler.compiledAliasProbability() : new float[0];
+        int[] alias = sampler.isWeighted() ? sampler.compiledAlias() : new int[0];
+
+        ByteBuffer buffer = ByteBuffer.allocate(headerLength + 4 * (costs.length + chances.length
+                + groupOffsets.length + templateIds.length + aliasProbability.length + alias.length));
+        buffer.putInt(cacheMagic).putInt(cacheFormatVersion).put(hash);
+        buffer.putInt(sampler.isWeighted() ? 1 : 0).putInt(costs.length).putInt(templateIds.length);
+        int checksumPosition = buffer.position();
+        buffer.putInt(0);
+        for(int cost : costs) buffer.putInt(cost);
+        for(float chance : chances) buffer.putFloat(chance);
+        for(int offset : groupOffsets) buffer.putInt(offset);
+        for(int templateId : templateIds) buffer.putInt(templateId);
+        for(float probability : aliasProbability) buffer.putFloat(probability);
+        for(int i : alias) buffer.putInt(i);
+        buffer.flip();
+        buffer.position(headerLength);
+        buffer.putInt(checksumPosition, checksum(buffer));
+        buffer.rewind();
+
+        Files.createDirectories(cacheDirectory);
+        Path temp = Files.createTempFile(cacheDirectory, cacheFile.getFileName().toString(), ".tmp");
+        try{
+            try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)){
+                while(buffer.hasRemaining()) channel.write(buffer);
+                channel.force(true);
+            }
+            try{
+                Files.move(temp, cacheFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }catch(AtomicMoveNotSupportedException e){
+                Files.move(temp, cacheFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }finally{
+            Files.deleteIfExists(temp);
+        }
+    }
+}
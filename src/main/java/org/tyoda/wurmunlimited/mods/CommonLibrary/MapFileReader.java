@@ -0,0 +1,248 @@
+package org.tyoda.wurmunlimited.mods.CommonLibrary;
+
+import com.wurmonline.mesh.Tiles;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
+
+/**
+ * Reads the tiles of a map file, like top_layer.map, without a running server.
+ * The file is memory mapped read only, so the operating system pages in only the parts
+ * that are read, and the tiles are decoded the same way as the ones of Server.surfaceMesh.
+ * <p>
+ * A map file is a header of 1024 bytes, the size level of the map being its 10th byte,
+ * followed by one big endian int per tile, row by row. As a single mapping can not
+ * be larger than 2GB, the file is mapped in segments of whole rows.
+ * The mappings are released once the reader is garbage collected.
+ */
+public final class MapFileReader {
+    static final int headerSize = 1024;
+    static final int sizeLevelOffset = 9;
+    /**
+     * The most bytes mapped in one segment
+     */
+    private static final int maxSegmentBytes = 1 << 30;
+    /**
+     * Rows read per task when scanning in parallel
+     */
+    private static final int rowsPerTask = 64;
+
+    private final Path file;
+    private final int sizeLevel;
+    private final int size;
+    /**
+     * Every segment holds 1 << segmentShift rows
+     */
+    private final int segmentShift;
+    private final MappedByteBuffer[] segments;
+
+    private MapFileReader(Path file, int sizeLevel, MappedByteBuffer[] segments, int segmentShift){
+        this.file = file;
+        this.sizeLevel = sizeLevel;
+        this.size = 1 << sizeLevel;
+        this.segments = segments;
+        this.segmentShift = segmentShift;
+    }
+
+    /**
+     * Opens a map file
+     * @param file The map file, like top_layer.map in the folder of the map.
+     * @throws IOException If the file can not be read or is not a map file
+     */
+    public static MapFileReader open(Path file) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+            if(channel.size() < headerSize) {
+                throw new IOException(file + " is too short to be a map file.");
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, headerSize);
+            int sizeLevel = header.get(sizeLevelOffset);
+            // Maps range from 32 to 32768 tiles wide
+            if(sizeLevel < 5 || sizeLevel > 15) {
+                throw new IOException(file + " has an invalid size level: " + sizeLevel);
+            }
+            int size = 1 << sizeLevel;
+            long rowBytes = (long)size * 4;
+            if(channel.size() < headerSize + rowBytes * size) {
+                throw new IOException(file + " is too short for a map of " + size + " tiles.");
+            }
+
+            int segmentShift = Math.min(sizeLevel, Integer.numberOfTrailingZeros((int)(maxSegmentBytes / rowBytes)));
+            MappedByteBuffer[] segments = new MappedByteBuffer[size >> segmentShift];
+            for(int i = 0; i < segments.length; ++i){
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        headerSize + ((long)i << segmentShift) * rowBytes, rowBytes << segmentShift);
+            }
+            return new MapFileReader(file, sizeLevel, segments, segmentShift);
+        }
+    }
+
+    /**
+     * Returns the encoded tile at the position, like Server.surfaceMesh.getTile() would
+     * @param tileX The x value of the tile position.
+     * @param tileY The y value of the tile position.
+     */
+    public int getTile(int tileX, int tileY){
+        if(tileX < 0 || tileY < 0 || tileX >= size || tileY >= size) {
+            throw new IndexOutOfBoundsException("Tile " + tileX + ", " + tileY + " is outside of the map.");
+        }
+        int row = tileY & ((1 << segmentShift) - 1);
+        return segments[tileY >> segmentShift].getInt(((row << sizeLevel) + tileX) << 2);
+    }
+
+    /**
+     * Returns the type of the tile at the position, as decoded by Tiles.decodeType()
+     * @param tileX The x value of the tile position.
+     * @param tileY The y value of the tile position.
+     */
+    public byte getType(int tileX, int tileY){
+        return Tiles.decodeType(getTile(tileX, tileY));
+    }
+
+    /**
+     * Returns the height of the tile at the position, as decoded by Tiles.decodeHeight()
+     * @param tileX The x value of the tile position.
+     * @param tileY The y value of the tile position.
+     */
+    public short getHeight(int tileX, int tileY){
+        return Tiles.decodeHeight(getTile(tileX, tileY));
+    }
+
+    /**
+     * Copies a row of encoded tiles into an array
+     * @param tileY The y value of the row
+     * @param row The array the tiles are copied to, at least getSize() long.
+     */
+    public void readRow(int tileY, int[] row){
+        if(tileY < 0 || tileY >= size) {
+            throw new IndexOutOfBoundsException("Row " + tileY + " is outside of the map.");
+        }
+        rowBuffer(tileY).get(row, 0, size);
+    }
+
+    /**
+     * Returns a view of a row that can be read without affecting other threads
+     */
+    private IntBuffer rowBuffer(int tileY){
+        ByteBuffer segment = segments[tileY >> segmentShift].duplicate();
+        int row = tileY & ((1 << segmentShift) - 1);
+        segment.position((row << sizeLevel) << 2);
+        return segment.asIntBuffer();
+    }
+
+    /**
+     * Reads the rows of the map handed to a scanner, see scan()
+     * @param <R> The type of the partial results
+     */
+    @FunctionalInterface
+    public interface RowScanner<R> {
+        /**
+         * Reads a row of encoded tiles into the partial result
+         * @param result The partial result of the chunk the row is in
+         * @param tileY The y value of the row
+         * @param row The encoded tiles of the row. Reused for the next row, so it must not be kept.
+         */
+        void scan(R result, int tileY, int[] row);
+    }
+
+    /**
+     * Scans every row of the map in parallel. The map is split into chunks of rows, every chunk
+     * is read into its own partial result, and the partial results are combined into one.
+     * @param create Creates an empty partial result for a chunk
+     * @param scanner Reads a row into the partial result of its chunk
+     * @param combiner Combines two partial results, the first being of the rows above the second
+     * @param pool The pool the chunks are read in
+     * @param <R> The type of the result
+     * @return The combined result of every row
+     */
+    public <R> R scan(Supplier<R> create, RowScanner<R> scanner, BinaryOperator<R> combiner, ForkJoinPool pool){
+        return pool.invoke(new ScanTask<>(create, scanner, combiner, 0, size));
+    }
+
+    private final class ScanTask<R> extends RecursiveTask<R> {
+        private static final long serialVersionUID = 1L;
+        private final Supplier<R> create;
+        private final RowScanner<R> scanner;
+        private final BinaryOperator<R> combiner;
+        private final int fromRow;
+        private final int toRow;
+
+        ScanTask(Supplier<R> create, RowScanner<R> scanner, BinaryOperator<R> combiner, int fromRow, int toRow){
+            this.create = create;
+            this.scanner = scanner;
+            this.combiner = combiner;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+        }
+
+        @Override
+        protected R compute(){
+            if(toRow - fromRow > rowsPerTask){
+                int middle = (fromRow + toRow) >>> 1;
+                ScanTask<R> top = new ScanTask<>(create, scanner, combiner, fromRow, middle);
+                top.fork();
+                R bottom = new ScanTask<>(create, scanner, combiner, middle, toRow).compute();
+                return combiner.apply(top.join(), bottom);
+            }
+            R result = create.get();
+            int[] row = new int[size];
+            for(int tileY = fromRow; tileY < toRow; ++tileY){
+                rowBuffer(tileY).get(row, 0, size);
+                scanner.scan(result, tileY, row);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Counts the tiles of every type in parallel on the common ForkJoinPool.
+     * @return The number of tiles of every type, indexed by the type id & 0xFF.
+     */
+    public long[] countTypes(){
+        return countTypes(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Counts the tiles of every type in parallel.
+     * @param pool The pool the chunks are counted in
+     * @return The number of tiles of every type, indexed by the type id & 0xFF.
+     */
+    public long[] countTypes(ForkJoinPool pool){
+        return scan(() -> new long[256],
+                (counts, tileY, row) -> {
+                    for(int tile : row)
+                        ++counts[Tiles.decodeType(tile) & 0xFF];
+                },
+                (a, b) -> {
+                    for(int i = 0; i < a.length; ++i)
+                        a[i] += b[i];
+                    return a;
+                }, pool);
+    }
+
+    public Path getFile(){
+        return file;
+    }
+
+    /**
+     * Returns the width and height of the map, in tiles
+     */
+    public int getSize(){
+        return size;
+    }
+
+    /**
+     * Returns the base 2 logarithm of the size of the map
+     */
+    public int getSizeLevel(){
+        return sizeLevel;
+    }
+}
@@ -0,0 +1,270 @@
+package org.tyoda.wurmunlimited.mods.CommonLibrary;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Named counters and histograms, see CommonLibrary.metrics for the ones of this library.
+ * Recording a value only adds to LongAdders, so it takes no locks and threads recording
+ * at once do not contend. Look the counters and histograms up once and keep them,
+ * as the lookup by name is slower than recording.
+ * <p>
+ * The values can be read at any time, and written to the log or a file periodically with
+ * startDumping(). A snapshot taken while values are being recorded may be off by the
+ * values recorded while it was taken.
+ */
+public final class MetricsRegistry {
+    private final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private volatile boolean enabled = true;
+    private ScheduledThreadPoolExecutor dumper;
+
+    /**
+     * Returns the counter with the name, creating it if there is none
+     * @param name The name of the counter, like "loot.items"
+     */
+    public Counter counter(String name){
+        return counters.computeIfAbsent(name, n -> new Counter());
+    }
+
+    /**
+     * Returns the histogram with the name, creating it if there is none
+     * @param name The name of the histogram, like "randomPos.nanos"
+     */
+    public Histogram histogram(String name){
+        return histograms.computeIfAbsent(name, n -> new Histogram());
+    }
+
+    public boolean isEnabled(){
+        return enabled;
+    }
+
+    /**
+     * Sets whether values are recorded. While disabled, recording does nothing.
+     * @param _enabled Whether values are recorded, the default is true.
+     */
+    public void setEnabled(boolean _enabled){
+        enabled = _enabled;
+    }
+
+    /**
+     * Returns the value of every counter, sorted by name
+     */
+    public Map<String, Long> getCounters(){
+        TreeMap<String, Long> values = new TreeMap<>();
+        counters.forEach((name, counter) -> values.put(name, counter.sum()));
+        return values;
+    }
+
+    /**
+     * Returns every histogram, sorted by name
+     */
+    public Map<String, Histogram> getHistograms(){
+        return new TreeMap<>(histograms);
+    }
+
+    /**
+     * Sets every counter and histogram back to zero
+     */
+    public void reset(){
+        counters.values().forEach(Counter::reset);
+        histograms.values().forEach(Histogram::reset);
+    }
+
+    /**
+     * Returns every counter and histogram, one per line, sorted by name
+     */
+    public String snapshot(){
+        StringBuilder sb = new StringBuilder();
+        getCounters().forEach((name, value) -> sb.append(name).append(": ").append(value).append('\n'));
+        getHistograms().forEach((name, histogram) -> sb.append(name).append(": ").append(histogram).append('\n'));
+        return sb.toString();
+    }
+
+    /**
+     * Starts writing a snapshot periodically on a daemon thread, replacing the earlier schedule if there is one.
+     * @param period The time between two snapshots. Must be positive.
+     * @param unit The unit of period
+     * @param file The file the snapshots are appended to, or null to log them
+     */
+    public synchronized void startDumping(long period, TimeUnit unit, Path file){
+        if(period <= 0) {
+            throw new IllegalArgumentException("period must be positive.");
+        }
+        stopDumping();
+        dumper = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "CommonLibrary-Metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleAtFixedRate(() -> dump(file), period, period, unit);
+    }
+
+    /**
+     * Stops writing snapshots. Does nothing if they are not being written.
+     */
+    public synchronized void stopDumping(){
+        if(dumper == null) return;
+        dumper.shutdownNow();
+        dumper = null;
+    }
+
+    /**
+     * Writes a snapshot to the file, or logs it if file is null
+     * @param file The file the snapshot is appended to, or null to log it
+     */
+    public void dump(Path file){
+        String snapshot = snapshot();
+        if(file == null) {
+            CommonLibrary.logger.info("Metrics:\n" + snapshot);
+            return;
+        }
+        try{
+            Files.write(file, ("# " + new Date() + '\n' + snapshot).getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE);
+        }catch(IOException e){
+            CommonLibrary.logger.severe("Could not write metrics to " + file + ": " + e);
+        }
+    }
+
+    /**
+     * A number that only grows, like the number of items created
+     */
+    public final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        private Counter(){}
+
+        public void increment(){
+            if(enabled) value.increment();
+        }
+
+        public void add(long amount){
+            if(enabled) value.add(amount);
+        }
+
+        public long sum(){
+            return value.sum();
+        }
+
+        private void reset(){
+            value.reset();
+        }
+
+        @Override
+        public String toString(){
+            return Long.toString(sum());
+        }
+    }
+
+    /**
+     * The distribution of recorded values, like latencies in nanoseconds.
+     * The buckets are fixed: bucket 0 counts the values below 1, and bucket i
+     * the values from 2^(i-1) up to 2^i, so percentiles are accurate to a factor of 2.
+     */
+    public final class Histogram {
+        private static final int bucketCount = 65;
+        private final LongAdder[] buckets = new LongAdder[bucketCount];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, Long.MIN_VALUE);
+
+        private Histogram(){
+            for(int i = 0; i < bucketCount; ++i)
+                buckets[i] = new LongAdder();
+        }
+
+        /**
+         * Records a value
+         * @param value The value
+         */
+        public void record(long value){
+            if(!enabled) return;
+            buckets[value <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(value)].increment();
+            count.increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        /**
+         * Records the time since a System.nanoTime() value, in nanoseconds
+         * @param start The value of System.nanoTime() when the timed work started
+         */
+        public void recordNanosSince(long start){
+            record(System.nanoTime() - start);
+        }
+
+        /**
+         * Returns the number of values recorded
+         */
+        public long getCount(){
+            return count.sum();
+        }
+
+        /**
+         * Returns the sum of the values recorded
+         */
+        public long getSum(){
+            return sum.sum();
+        }
+
+        /**
+         * Returns the average of the values recorded, or 0 if there are none
+         */
+        public double getMean(){
+            long count = getCount();
+            return count == 0 ? 0 : getSum() / (double)count;
+        }
+
+        /**
+         * Returns the largest value recorded, or 0 if there are none
+         */
+        public long getMax(){
+            return getCount() == 0 ? 0 : max.get();
+        }
+
+        /**
+         * Returns an upper bound of the value the given share of the values are at or below.
+         * @param share The share of the values [0..1]
+         * @return The upper end of the bucket the percentile falls in, at most the largest value recorded.
+         */
+        public long getPercentile(double share){
+            if(share < 0 || share > 1) {
+                throw new IllegalArgumentException("share must be between 0 and 1.");
+            }
+            long target = (long)Math.ceil(share * getCount());
+            long seen = 0;
+            for(int i = 0; i < bucketCount; ++i){
+                seen += buckets[i].sum();
+                if(seen >= target && seen > 0)
+                    return Math.min(i == 0 ? 0 : i == 64 ? Long.MAX_VALUE : (1L << i) - 1, getMax());
+            }
+            return getMax();
+        }
+
+        private void reset(){
+            for(LongAdder bucket : buckets)
+                bucket.reset();
+            count.reset();
+            sum.reset();
+            max.reset();
+        }
+
+        @Override
+        public String toString(){
+            return String.format("count %d, mean %.1f, p50 %d, p90 %d, p99 %d, max %d",
+                    getCount(), getMean(), getPercentile(0.5), getPercentile(0.9), getPercentile(0.99), getMax());
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package org.tyoda.wurmunlimited.mods.CommonLibrary;
+
+/**
+ * Static helpers for tile positions packed into a single long, the x value in the
+ * high 32 bits and the y value in the low 32 bits. Packed positions need no allocation,
+ * and can be kept in primitive arrays such as a PositionBuffer.
+ * A tile is four meters wide, so meter positions convert the same way WorldPosition2D does.
+ */
+public final class PackedPosition {
+    private PackedPosition(){}
+
+    /**
+     * Packs a tile position into a long
+     * @param tileX The x value of the tile position.
+     * @param tileY The y value of the tile position.
+     */
+    public static long pack(int tileX, int tileY){
+        return (long)tileX << 32 | (tileY & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Packs the tile position of a WorldPosition2D into a long
+     * @param position The position
+     */
+    public static long pack(WorldPosition2D position){
+        return pack(position.getTileX(), position.getTileY());
+    }
+
+    /**
+     * Packs the tile a meter position is on into a long
+     * @param meterX The x value of the meter position.
+     * @param meterY The y value of the meter position.
+     */
+    public static long packMeters(float meterX, float meterY){
+        return pack(meterToTile(meterX), meterToTile(meterY));
+    }
+
+    /**
+     * Returns the x value of a packed tile position
+     */
+    public static int tileX(long packed){
+        return (int)(packed >> 32);
+    }
+
+    /**
+     * Returns the y value of a packed tile position
+     */
+    public static int tileY(long packed){
+        return (int)packed;
+    }
+
+    /**
+     * Returns the meter position of the corner of the tile, like WorldPosition2D.setTilePos() sets it
+     * @param tile The x or y value of the tile position.
+     */
+    public static float tileToMeter(int tile){
+        return tile << 2;
+    }
+
+    /**
+     * Returns the meter position of the middle of the tile
+     * @param tile The x or y value of the tile position.
+     */
+    public static float tileCenterToMeter(int tile){
+        return (tile << 2) + 2f;
+    }
+
+    /**
+     * Returns the tile a meter position is on, like WorldPosition2D.setMeterPos() does
+     * @param meter The x or y value of the meter position.
+     */
+    public static int meterToTile(float meter){
+        return (int)meter >> 2;
+    }
+
+    /**
+     * Returns a new WorldPosition2D on the corner of the packed tile
+     * @param packed The packed tile position
+     */
+    public static WorldPosition2D toPosition(long packed){
+        return new WorldPosition2D(tileX(packed), tileY(packed));
+    }
+
+    /**
+     * Returns the squared distance between two packed tile positions, in tiles
+     */
+    public static long distanceSquared(long a, long b){
+        long dx = (long)tileX(a) - tileX(b);
+        long dy = (long)tileY(a) - tileY(b);
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * Returns the packed tile position as "(x, y)"
+     */
+    public static String toString(long packed){
+        return "(" + tileX(packed) + ", " + tileY(packed) + ")";
+    }
+}
@@ -0,0 +1,271 @@
+package org.tyoda.wurmunlimited.mods.CommonLibrary;
+
+import com.wurmonline.server.zones.Zones;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Scatters random positions that are at least a minimum distance apart, using
+ * Bridson's algorithm. New positions are tried around the ones already accepted,
+ * and a background grid with cells small enough to hold at most one position
+ * finds the positions near a candidate without going through all of them,
+ * so generating n positions takes about n steps instead of n squared.
+ * <p>
+ * The positions are on tiles WorldPosition2D.getRandomPos() would accept. As eligible land
+ * can be split by water, the sampler starts again from a new random seed whenever it
+ * runs out of room around the positions it has, until it fails to place seedTries seeds in a row.
+ */
+public final class PoissonDiskSampler {
+    /**
+     * The most cells kept in an array, 16MB worth. Larger grids go in a HashMap.
+     */
+    private static final int maxDenseCells = 1 << 22;
+
+    private final int minDistance;
+    private final int padding;
+    private int attempts = 30;
+    private int seedTries = 100;
+    private SpawnIndex spawnIndex;
+
+    /**
+     * Initializes a PoissonDiskSampler
+     * @param minDistance The minimum distance between two positions, in tiles. Must be positive.
+     * @param padding The minimum distance from the map's borders, in meters.
+     */
+    public PoissonDiskSampler(int minDistance, int padding){
+        if(minDistance <= 0) {
+            throw new IllegalArgumentException("minDistance must be positive.");
+        }
+        if(padding < 0) {
+            throw new IllegalArgumentException("padding must not be negative.");
+        }
+        this.minDistance = minDistance;
+        this.padding = padding;
+    }
+
+    public int getMinDistance(){
+        return minDistance;
+    }
+
+    public int getPadding(){
+        return padding;
+    }
+
+    public int getAttempts(){
+        return attempts;
+    }
+
+    /**
+     * Sets how many candidates are tried around a position before it is given up on.
+     * Higher values pack the positions tighter, but take longer.
+     * @param _attempts Candidates per position. Must be positive, the default is 30.
+     */
+    public void setAttempts(int _attempts){
+        if(_attempts <= 0) {
+            throw new IllegalArgumentException("attempts must be positive.");
+        }
+        attempts = _attempts;
+    }
+
+    public int getSeedTries(){
+        return seedTries;
+    }
+
+    /**
+     * Sets how many random seeds in a row may fail before the sampler stops.
+     * @param _seedTries Seed tries. Must be positive, the default is 100.
+     */
+    public void setSeedTries(int _seedTries){
+        if(_seedTries <= 0) {
+            throw new IllegalArgumentException("seedTries must be positive.");
+        }
+        seedTries = _seedTries;
+    }
+
+    public SpawnIndex getSpawnIndex(){
+        return spawnIndex;
+    }
+
+    /**
+     * Makes the sampler check tiles and draw seeds with the index, instead of checking
+     * the tiles themselves. The index must have the same padding.
+     * @param _spawnIndex The index, or null to check the tiles directly
+     */
+    public void setSpawnIndex(SpawnIndex _spawnIndex){
+        if(_spawnIndex != null && _spawnIndex.getPadding() != padding) {
+            throw new IllegalArgumentException("The padding of the index must match the padding of the sampler.");
+        }
+        spawnIndex = _spawnIndex;
+    }
+
+    /**
+     * Generates well spaced random positions.
+     * @param maxCount The most positions to generate
+     * @param random The RandomSource to roll with
+     * @return A new list of the positions, on the corners of their tiles
+     */
+    public ArrayList<WorldPosition2D> sample(int maxCount, RandomSource random){
+        PositionBuffer tiles = new PositionBuffer();
+        sample(maxCount, random, tiles);
+        return tiles.toPositions();
+    }
+
+    /**
+     * Generates well spaced random tiles.
+     * @param maxCount The most tiles to generate
+     * @param random The RandomSource to roll with
+     * @param tiles The buffer the packed tile positions are appended to
+     * @return The number of tiles appended
+     */
+    public int sample(int maxCount, RandomSource random, PositionBuffer tiles){
+        if(maxCount < 0) {
+            throw new IllegalArgumentException("maxCount must not be negative.");
+        }
+        return new Run(random).sample(maxCount, tiles);
+    }
+
+    /**
+     * The state of one call to sample()
+     */
+    private final class Run {
+        private final RandomSource random;
+        private final int minTileX, minTileY, maxTileX, maxTileY;
+        private final long minDistanceSquared = (long)minDistance * minDistance;
+        /**
+         * The cells are minDistance / sqrt(2) wide, so a cell holds at most one position
+         */
+        private final double cellSize = minDistance / Math.sqrt(2);
+        /**
+         * The reach of the neighbourhood checked around a cell, in cells
+         */
+        private final int reach = (int)Math.ceil(minDistance / cellSize);
+        /**
+         * The index + 1 in points of the position in every cell, or 0 for none.
+         * Maps with many cells use the sparse grid instead.
+         */
+        private final int[] denseGrid;
+        private final HashMap<Long, Integer> sparseGrid;
+        private final int gridWidth;
+        /**
+         * Every position accepted in this run
+         */
+        private final PositionBuffer points = new PositionBuffer();
+        /**
+         * Tiles already found to be ineligible, so they are not checked again
+         */
+        private final HashSet<Long> rejected = new HashSet<>();
+
+        Run(RandomSource random){
+            this.random = random;
+            minTileX = Math.max(1, (padding + 3) >> 2);
+            minTileY = Math.max(1, (padding + 3) >> 2);
+            maxTileX = Math.min(Zones.worldTileSizeX - 2, ((int)Zones.worldMeterSizeX - padding - 4) >> 2);
+            maxTileY = Math.min(Zones.worldTileSizeY - 2, ((int)Zones.worldMeterSizeY - padding - 4) >> 2);
+            gridWidth = Math.max(0, (int)(maxTileX / cellSize) + 1);
+            long cells = (long)gridWidth * Math.max(0, (int)(maxTileY / cellSize) + 1);
+            denseGrid = cells <= maxDenseCells ? new int[(int)cells] : null;
+            sparseGrid = denseGrid == null ? new HashMap<>() : null;
+        }
+
+        /**
+         * Returns the index in points of the position in the cell, or -1 if it is empty
+         */
+        private int cellAt(int cellX, int cellY){
+            if(cellX < 0 || cellY < 0 || cellX >= gridWidth) return -1;
+            if(denseGrid != null) {
+                long cell = (long)cellY * gridWidth + cellX;
+                return cell < denseGrid.length ? denseGrid[(int)cell] - 1 : -1;
+            }
+            Integer index = sparseGrid.get(PackedPosition.pack(cellX, cellY));
+            return index == null ? -1 : index;
+        }
+
+        int sample(int maxCount, PositionBuffer tiles){
+            if(minTileX > maxTileX || minTileY > maxTileY) return 0;
+            PositionBuffer active = new PositionBuffer();
+            int count = 0;
+            while(count < maxCount){
+                if(active.isEmpty()){
+                    long seed = findSeed();
+                    if(seed < 0) break;
+                    accept(seed, tiles, active);
+                    ++count;
+                    continue;
+                }
+
+                int index = random.nextInt(active.size());
+                long around = active.get(index);
+                boolean placed = false;
+                for(int attempt = 0; attempt < attempts && !placed; ++attempt){
+                    // Uniform over the area of the ring between minDistance and twice minDistance
+                    double distance = Math.sqrt(minDistanceSquared * (1 + 3 * random.nextDouble()));
+                    double angle = 2 * Math.PI * random.nextDouble();
+                    int x = (int)Math.round(PackedPosition.tileX(around) + distance * Math.cos(angle));
+                    int y = (int)Math.round(PackedPosition.tileY(around) + distance * Math.sin(angle));
+                    long candidate = PackedPosition.pack(x, y);
+                    if(fits(x, y) && isEligible(candidate)){
+                        accept(candidate, tiles, active);
+                        ++count;
+                        placed = true;
+                    }
+                }
+                if(!placed) active.swapRemove(index);
+            }
+            return count;
+        }
+
+        private long findSeed(){
+            for(int i = 0; i < seedTries; ++i){
+                long candidate;
+                if(spawnIndex != null){
+                    candidate = spawnIndex.getRandomTile(random);
+                    if(candidate < 0) return -1;
+                }else{
+                    candidate = PackedPosition.pack(minTileX + random.nextInt(maxTileX - minTileX + 1),
+                            minTileY + random.nextInt(maxTileY - minTileY + 1));
+                }
+                if(fits(PackedPosition.tileX(candidate), PackedPosition.tileY(candidate)) && isEligible(candidate))
+                    return candidate;
+            }
+            return -1;
+        }
+
+        /**
+         * Returns whether the tile is within the padding and far enough from every accepted tile
+         */
+        private boolean fits(int x, int y){
+            if(x < minTileX || x > maxTileX || y < minTileY || y > maxTileY) return false;
+            int cellX = (int)(x / cellSize);
+            int cellY = (int)(y / cellSize);
+            for(int dy = -reach; dy <= reach; ++dy){
+                for(int dx = -reach; dx <= reach; ++dx){
+                    int other = cellAt(cellX + dx, cellY + dy);
+                    if(other >= 0 && PackedPosition.distanceSquared(points.get(other), PackedPosition.pack(x, y)) < minDistanceSquared)
+                        return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean isEligible(long tile){
+            if(spawnIndex != null) return spawnIndex.isEligible(PackedPosition.tileX(tile), PackedPosition.tileY(tile));
+            if(rejected.contains(tile)) return false;
+            if(WorldPosition2D.checkTile(PackedPosition.tileX(tile), PackedPosition.tileY(tile)) == WorldPosition2D.tileEligible)
+                return true;
+            rejected.add(tile);
+            return false;
+        }
+
+        private void accept(long tile, PositionBuffer tiles, PositionBuffer active){
+            int cellX = (int)(PackedPosition.tileX(tile) / cellSize);
+            int cellY = (int)(PackedPosition.tileY(tile) / cellSize);
+            if(denseGrid != null) denseGrid[cellY * gridWidth + cellX] = points.size() + 1;
+            else sparseGrid.put(PackedPosition.pack(cellX, cellY), points.size());
+            points.add(tile);
+            tiles.add(tile);
+            active.add(tile);
+        }
+    }
+}
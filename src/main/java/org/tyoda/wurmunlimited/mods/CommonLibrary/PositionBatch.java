@@ -0,0 +1,295 @@
+package org.tyoda.wurmunlimited.mods.CommonLibrary;
+
+import com.wurmonline.server.zones.Zones;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static org.tyoda.wurmunlimited.mods.CommonLibrary.WorldPosition2D.tileEligible;
+
+/**
+ * Many random positions generated at once, with the checks of WorldPosition2D.getRandomPos().
+ * The meter positions are stored in two int arrays instead of an object each.
+ * <p>
+ * The map is cut into strips of rows. In every round, each strip checks its share of the
+ * candidates in parallel with its own RandomSource, and the strips' accepted positions are
+ * pooled. As the candidates are spread over the whole map, the pool is uniform over the
+ * eligible tiles, and the positions kept are picked from it at random.
+ */
+public final class PositionBatch {
+    /**
+     * The height of the strips in meters
+     */
+    static final int stripMeters = 256;
+
+    private final int[] meterX;
+    private final int[] meterY;
+    private final int requested;
+    private final long candidates;
+    private final long[] failures;
+    private final long duplicates;
+
+    private PositionBatch(int[] meterX, int[] meterY, int requested, long candidates, long[] failures, long duplicates){
+        this.meterX = meterX;
+        this.meterY = meterY;
+        this.requested = requested;
+        this.candidates = candidates;
+        this.failures = failures;
+        this.duplicates = duplicates;
+    }
+
+    /**
+     * Generates random positions in parallel on the common ForkJoinPool.
+     * @param count The number of positions to generate
+     * @param padding The minimum distance from the map's borders.
+     * @param maxTries The maximum number of candidates checked per position requested.
+     * @param unique Whether every position must be on a different tile
+     * @param seed The seed of the RandomSource the strips' sources are split from
+     */
+    public static PositionBatch generate(int count, int padding, int maxTries, boolean unique, long seed){
+        return generate(count, padding, maxTries, unique, RandomSource.splittable(seed), ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Generates random positions in parallel. Every strip rolls with its own RandomSource split
+     * from random in strip order, so the result only depends on the state of random,
+     * not on how the strips are scheduled.
+     * @param count The number of positions to generate
+     * @param padding The minimum distance from the map's borders.
+     * @param maxTries The maximum number of candidates checked per position requested.
+     *                 If they run out, fewer positions than requested are returned.
+     * @param unique Whether every position must be on a different tile
+     * @param random The RandomSource the strips' sources are split from
+     * @param pool The pool the strips are checked in
+     */
+    public static PositionBatch generate(int count, int padding, int maxTries, boolean unique,
+                                         RandomSource random, ForkJoinPool pool){
+        if(count < 0 || maxTries < 0) {
+            throw new IllegalArgumentException("count and maxTries must not be negative.");
+        }
+        int rangeX = (int)Zones.worldMeterSizeX - padding * 2;
+        int rangeY = (int)Zones.worldMeterSizeY - padding * 2;
+        if(rangeX <= 0 || rangeY <= 0) {
+            throw new IllegalArgumentException("padding leaves no room on the map.");
+        }
+        int stripCount = (rangeY + stripMeters - 1) / stripMeters;
+        long budget = (long)count * maxTries;
+
+        int[] meterX = new int[count];
+        int[] meterY = new int[count];
+        int found = 0;
+        long candidates = 0;
+        long accepted = 0;
+        long duplicates = 0;
+        long[] failures = new long[WorldPosition2D.tileFilters.size()];
+        HashSet<Long> tiles = unique ? new HashSet<>() : null;
+
+        while(found < count && candidates < budget){
+            // Aim a little above what the acceptance so far says is needed
+            double acceptance = candidates == 0 ? 1 : Math.max(accepted, 1) / (double)candidates;
+            long round = Math.min(budget - candidates, (long)Math.ceil((count - found) / acceptance * 1.2) + 16);
+
+            Strip[] strips = new Strip[stripCount];
+            long assigned = 0;
+            for(int s = 0; s < stripCount; ++s){
+                int from = padding + s * stripMeters;
+                int height = Math.min(stripMeters, padding + rangeY - from);
+                // The candidates are split by the height of the strips, rounding at random
+                double share = (double)round * height / rangeY;
+                int strip = (int)share;
+                if(random.nextDouble() < share - strip) ++strip;
+                if(assigned + strip > round) strip = (int)(round - assigned);
+                assigned += strip;
+                strips[s] = new Strip(from, height, strip, random.split());
+            }
+            pool.invoke(new StripTask(strips, padding, rangeX, 0, stripCount));
+            candidates += assigned;
+
+            int roundAccepted = 0;
+            for(Strip strip : strips){
+                roundAccepted += strip.accepted;
+                for(int i = 0; i < strip.failures.length; ++i)
+                    failures = TileFilterPipeline.count(failures, i, strip.failures[i]);
+            }
+            accepted += roundAccepted;
+            int[] poolX = new int[roundAccepted];
+            int[] poolY = new int[roundAccepted];
+            int position = 0;
+            for(Strip strip : strips){
+                System.arraycopy(strip.meterX, 0, poolX, position, strip.accepted);
+                System.arraycopy(strip.meterY, 0, poolY, position, strip.accepted);
+                position += strip.accepted;
+            }
+
+            // Partial Fisher-Yates shuffle, so the positions kept do not favour the first strips
+            for(int i = 0; i < roundAccepted && found < count; ++i){
+                int j = i + random.nextInt(roundAccepted - i);
+                int x = poolX[j], y = poolY[j];
+                poolX[j] = poolX[i];
+                poolY[j] = poolY[i];
+                if(tiles != null && !tiles.add(PackedPosition.packMeters(x, y))) {
+                    ++duplicates;
+                    continue;
+                }
+                meterX[found] = x;
+                meterY[found] = y;
+                ++found;
+            }
+        }
+
+        if(found < count){
+            WorldPosition2D.logger.warning(String.format(
+                    "Could only generate %d of %d random positions. Failures were: %s  Duplicate-%d",
+                    found, count, WorldPosition2D.tileFilters.describe(failures), duplicates));
+        }
+        return new PositionBatch(Arrays.copyOf(meterX, found), Arrays.copyOf(meterY, found),
+                count, candidates, failures, duplicates);
+    }
+
+    /**
+     * The candidates of one strip in one round, and the ones it accepted
+     */
+    private static final class Strip {
+        final int from;
+        final int height;
+        final int candidates;
+        final RandomSource random;
+        int[] meterX;
+        int[] meterY;
+        int accepted;
+        long[] failures = new long[WorldPosition2D.tileFilters.size()];
+
+        Strip(int from, int height, int candidates, RandomSource random){
+            this.from = from;
+            this.height = height;
+            this.candidates = candidates;
+            this.random = random;
+        }
+    }
+
+    private static final class StripTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Strip[] strips;
+        private final int padding;
+        private final int rangeX;
+        private final int fromStrip;
+        private final int toStrip;
+
+        StripTask(Strip[] strips, int padding, int rangeX, int fromStrip, int toStrip){
+            this.strips = strips;
+            this.padding = padding;
+            this.rangeX = rangeX;
+            this.fromStrip = fromStrip;
+            this.toStrip = toStrip;
+        }
+
+        @Override
+        protected void compute(){
+            if(toStrip - fromStrip > 1){
+                int middle = (fromStrip + toStrip) >>> 1;
+                invokeAll(new StripTask(strips, padding, rangeX, fromStrip, middle),
+                          new StripTask(strips, padding, rangeX, middle, toStrip));
+                return;
+            }
+            Strip strip = strips[fromStrip];
+            strip.meterX = new int[strip.candidates];
+            strip.meterY = new int[strip.candidates];
+            for(int i = 0; i < strip.candidates; ++i){
+                int x = strip.random.nextInt(rangeX) + padding;
+                int y = strip.random.nextInt(strip.height) + strip.from;
+                int reason = WorldPosition2D.checkTile(x >> 2, y >> 2);
+                if(reason != tileEligible) {
+                    strip.failures = TileFilterPipeline.count(strip.failures, reason, 1);
+                    continue;
+                }
+                strip.meterX[strip.accepted] = x;
+                strip.meterY[strip.accepted] = y;
+                ++strip.accepted;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of positions generated
+     */
+    public int size(){
+        return meterX.length;
+    }
+
+    /**
+     * Returns the number of positions that were requested
+     */
+    public int getRequested(){
+        return requested;
+    }
+
+    public int getMeterX(int index){
+        return meterX[index];
+    }
+
+    public int getMeterY(int index){
+        return meterY[index];
+    }
+
+    public int getTileX(int index){
+        return meterX[index] >> 2;
+    }
+
+    public int getTileY(int index){
+        return meterY[index] >> 2;
+    }
+
+    /**
+     * Returns a new WorldPosition2D for the position at the index
+     * @param index The index of the position
+     */
+    public WorldPosition2D getPosition(int index){
+        return new WorldPosition2D((float)meterX[index], (float)meterY[index]);
+    }
+
+    /**
+     * Returns a new ArrayList with a WorldPosition2D for every position
+     */
+    public ArrayList<WorldPosition2D> toPositions(){
+        ArrayList<WorldPosition2D> list = new ArrayList<>(meterX.length);
+        for(int i = 0; i < meterX.length; ++i)
+            list.add(getPosition(i));
+        return list;
+    }
+
+    /**
+     * Appends the tiles of the positions to the buffer
+     * @param tiles The buffer the packed tile positions are appended to
+     */
+    public void copyTilesTo(PositionBuffer tiles){
+        tiles.ensureCapacity(tiles.size() + meterX.length);
+        for(int i = 0; i < meterX.length; ++i)
+            tiles.add(getTileX(i), getTileY(i));
+    }
+
+    /**
+     * Returns the number of candidates checked
+     */
+    public long getCandidates(){
+        return candidates;
+    }
+
+    /**
+     * Returns the number of candidates rejected for the reason
+     * @param reason 0 for water or lava, 1 for altars, 2 for villages and the index
+     *               in WorldPosition2D.tileFilters for the filters added by mods
+     */
+    public long getFailures(int reason){
+        return reason < failures.length ? failures[reason] : 0;
+    }
+
+    /**
+     * Returns the number of eligible candidates thrown away because their tile was already taken
+     */
+    public long getDuplicates(){
+        return duplicates;
+    }
+}
@@ -0,0 +1,202 @@
+package org.tyoda.wurmunlimited.mods.CommonLibrary;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+import java.util.function.LongPredicate;
+
+/**
+ * A growable list of tile positions packed with PackedPosition, for working with many
+ * positions without an object for each. Meant to be kept and reused with clear(),
+ * so that filling it does not allocate once it has grown large enough.
+ */
+public final class PositionBuffer {
+    private long[] data;
+    private int size = 0;
+
+    /**
+     * Initializes an empty PositionBuffer
+     */
+    public PositionBuffer(){
+        this(16);
+    }
+
+    /**
+     * Initializes an empty PositionBuffer
+     * @param capacity The number of positions it can hold before growing
+     */
+    public PositionBuffer(int capacity){
+        if(capacity < 0) {
+            throw new IllegalArgumentException("capacity must not be negative.");
+        }
+        data = new long[capacity];
+    }
+
+    /**
+     * Appends a packed position to the end of the buffer
+     * @param packed The packed tile position
+     */
+    public void add(long packed){
+        if(size == data.length) grow(size + 1);
+        data[size++] = packed;
+    }
+
+    /**
+     * Appends a tile position to the end of the buffer
+     * @param tileX The x value of the tile position.
+     * @param tileY The y value of the tile position.
+     */
+    public void add(int tileX, int tileY){
+        add(PackedPosition.pack(tileX, tileY));
+    }
+
+    /**
+     * Appends the tile position of a WorldPosition2D to the end of the buffer
+     * @param position The position
+     */
+    public void add(WorldPosition2D position){
+        add(PackedPosition.pack(position));
+    }
+
+    /**
+     * Appends the positions of another buffer to the end of this one
+     * @param other The buffer holding the positions
+     */
+    public void addAll(PositionBuffer other){
+        ensureCapacity(size + other.size);
+        System.arraycopy(other.data, 0, data, size, other.size);
+        size += other.size;
+    }
+
+    /**
+     * Returns the packed position at the index
+     * @param index The index of the position
+     */
+    public long get(int index){
+        if(index >= size) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        return data[index];
+    }
+
+    /**
+     * Returns the x value of the tile position at the index
+     * @param index The index of the position
+     */
+    public int getTileX(int index){
+        return PackedPosition.tileX(get(index));
+    }
+
+    /**
+     * Returns the y value of the tile position at the index
+     * @param index The index of the position
+     */
+    public int getTileY(int index){
+        return PackedPosition.tileY(get(index));
+    }
+
+    /**
+     * Sets the packed position at the index
+     * @param index The index of the position
+     * @param packed The new packed tile position
+     */
+    public void set(int index, long packed){
+        if(index >= size) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        data[index] = packed;
+    }
+
+    /**
+     * Removes the position at the index by moving the last position into its place,
+     * so it does not keep the order of the positions.
+     * @param index The index of the position
+     * @return The removed packed position
+     */
+    public long swapRemove(int index){
+        long removed = get(index);
+        data[index] = data[--size];
+        return removed;
+    }
+
+    /**
+     * Removes every position the filter accepts, keeping the order of the others.
+     * @param filter Returns true for the packed positions to remove
+     * @return The number of positions removed
+     */
+    public int removeIf(LongPredicate filter){
+        int kept = 0;
+        for(int i = 0; i < size; ++i){
+            if(!filter.test(data[i])) data[kept++] = data[i];
+        }
+        int removed = size - kept;
+        size = kept;
+        return removed;
+    }
+
+    /**
+     * Calls the action with every packed position, in order
+     * @param action The action
+     */
+    public void forEach(LongConsumer action){
+        for(int i = 0; i < size; ++i)
+            action.accept(data[i]);
+    }
+
+    /**
+     * Returns the number of positions in the buffer
+     */
+    public int size(){
+        return size;
+    }
+
+    /**
+     * Returns whether the buffer has no positions
+     */
+    public boolean isEmpty(){
+        return size == 0;
+    }
+
+    /**
+     * Removes all positions from the buffer, keeping its capacity
+     */
+    public void clear(){
+        size = 0;
+    }
+
+    /**
+     * Makes sure the buffer can hold at least capacity positions without growing
+     * @param capacity The number of positions
+     */
+    public void ensureCapacity(int capacity){
+        if(capacity > data.length) grow(capacity);
+    }
+
+    private void grow(int minCapacity){
+        int capacity = Math.max(minCapacity, data.length + (data.length >> 1) + 1);
+        data = Arrays.copyOf(data, capacity);
+    }
+
+    /**
+     * Returns a new array containing the packed positions of the buffer
+     */
+    public long[] toArray(){
+        return Arrays.copyOf(data, size);
+    }
+
+    /**
+     * Returns a new ArrayList with a WorldPosition2D for every position, on the corner of its tile
+     */
+    public ArrayList<WorldPosition2D> toPositions(){
+        ArrayList<WorldPosition2D> list = new ArrayList<>(size);
+        for(int i = 0; i < size; ++i)
+            list.add(PackedPosition.toPosition(data[i]));
+        return list;
+    }
+
+    @Override
+    public String toString(){
+        StringBuilder sb = new StringBuilder("[");
+        for(int i = 0; i < size; ++i){
+            if(i > 0) sb.append(", ");
+            sb.append(PackedPosition.toString(data[i]));
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -0,0 +1,427 @@
+package org.tyoda.wurmunlimited.mods.CommonLibrary;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.function.Consumer;
+
+/**
+ * A spatial index of WorldPosition2D objects, for finding the positions near a point
+ * without going through all of them. The map is divided into square cells, and only
+ * the cells that overlap the searched area are looked at.
+ * <p>
+ * Positions are found by identity, and the index uses the tile position they had when
+ * they were inserted. If a position is moved, call update() so the index notices.
+ * Distances are measured between tile positions, in tiles.
+ * This class is not thread safe.
+ */
+public final class PositionGrid {
+    /**
+     * A position in the index, and where it is kept
+     */
+    private static final class Entry {
+        final WorldPosition2D position;
+        int tileX, tileY;
+        Cell cell;
+        int index;
+
+        Entry(WorldPosition2D position){
+            this.position = position;
+        }
+    }
+
+    private static final class Cell {
+        Entry[] entries = new Entry[4];
+        int size = 0;
+    }
+
+    private static final int initialCellCapacity = 16;
+
+    private final int cellSize;
+    /**
+     * The cells that hold positions, in an open addressing table with linear probing, keyed by
+     * the packed cell position in cellKeys, so looking up a cell boxes nothing.
+     * A slot is empty if its cell is null. The length is a power of two.
+     */
+    private long[] cellKeys = new long[initialCellCapacity];
+    private Cell[] cells = new Cell[initialCellCapacity];
+    private int cellCount = 0;
+    private final IdentityHashMap<WorldPosition2D, Entry> entries = new IdentityHashMap<>();
+    /**
+     * The range of cells that have ever held positions, so searches can stop at its edge
+     */
+    private int minCellX = Integer.MAX_VALUE, minCellY = Integer.MAX_VALUE;
+    private int maxCellX = Integer.MIN_VALUE, maxCellY = Integer.MIN_VALUE;
+
+    /**
+     * Initializes an empty PositionGrid with cells of 32 by 32 tiles
+     */
+    public PositionGrid(){
+        this(32);
+    }
+
+    /**
+     * Initializes an empty PositionGrid
+     * @param cellSize The width of the cells in tiles. About the radius usually searched is a good size.
+     */
+    public PositionGrid(int cellSize){
+        if(cellSize <= 0) {
+            throw new IllegalArgumentException("cellSize must be positive.");
+        }
+        this.cellSize = cellSize;
+    }
+
+    public int getCellSize(){
+        return cellSize;
+    }
+
+    /**
+     * Returns the number of positions in the index
+     */
+    public int size(){
+        return entries.size();
+    }
+
+    public boolean isEmpty(){
+        return entries.isEmpty();
+    }
+
+    /**
+     * Returns whether the position object is in the index
+     * @param position The position
+     */
+    public boolean contains(WorldPosition2D position){
+        return entries.containsKey(position);
+    }
+
+    /**
+     * Adds a position to the index at its current tile position
+     * @param position The position
+     * @return false if the position was already in the index
+     */
+    public boolean insert(WorldPosition2D position){
+        if(entries.containsKey(position)) return false;
+        Entry entry = new Entry(position);
+        entries.put(position, entry);
+        place(entry);
+        return true;
+    }
+
+    /**
+     * Removes a position from the index
+     * @param position The position
+     * @return false if the position was not in the index
+     */
+    public boolean remove(WorldPosition2D position){
+        Entry entry = entries.remove(position);
+        if(entry == null) return false;
+        unplace(entry);
+        return true;
+    }
+
+    /**
+     * Moves a position in the index to its current tile position, after it was changed
+     * @param position The position
+     * @return false if the position was not in the index
+     */
+    public boolean update(WorldPosition2D position){
+        Entry entry = entries.get(position);
+        if(entry == null) return false;
+        if(entry.tileX == position.getTileX() && entry.tileY == position.getTileY()) return true;
+        unplace(entry);
+        place(entry);
+        return true;
+    }
+
+    /**
+     * Removes every position from the index
+     */
+    public void clear(){
+        cellKeys = new long[initialCellCapacity];
+        cells = new Cell[initialCellCapacity];
+        cellCount = 0;
+        entries.clear();
+        minCellX = minCellY = Integer.MAX_VALUE;
+        maxCellX = maxCellY = Integer.MIN_VALUE;
+    }
+
+    private void place(Entry entry){
+        entry.tileX = entry.position.getTileX();
+        entry.tileY = entry.position.getTileY();
+        int cellX = Math.floorDiv(entry.tileX, cellSize);
+        int cellY = Math.floorDiv(entry.tileY, cellSize);
+        Cell cell = cellAt(cellX, cellY);
+        if(cell == null) cell = addCell(PackedPosition.pack(cellX, cellY));
+        if(cell.size == cell.entries.length) cell.entries = Arrays.copyOf(cell.entries, cell.size * 2);
+        entry.cell = cell;
+        entry.index = cell.size;
+        cell.entries[cell.size++] = entry;
+        minCellX = Math.min(minCellX, cellX);
+        minCellY = Math.min(minCellY, cellY);
+        maxCellX = Math.max(maxCellX, cellX);
+        maxCellY = Math.max(maxCellY, cellY);
+    }
+
+    private void unplace(Entry entry){
+        Cell cell = entry.cell;
+        Entry last = cell.entries[--cell.size];
+        cell.entries[entry.index] = last;
+        last.index = entry.index;
+        cell.entries[cell.size] = null;
+        if(cell.size == 0) {
+            removeCell(PackedPosition.pack(Math.floorDiv(entry.tileX, cellSize), Math.floorDiv(entry.tileY, cellSize)));
+        }
+        entry.cell = null;
+    }
+
+    private Cell cellAt(int cellX, int cellY){
+        long key = PackedPosition.pack(cellX, cellY);
+        int mask = cells.length - 1;
+        for(int i = slot(key, mask); ; i = (i + 1) & mask){
+            Cell cell = cells[i];
+            if(cell == null || cellKeys[i] == key) return cell;
+        }
+    }
+
+    private static int slot(long key, int mask){
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int)(hash ^ hash >>> 32) & mask;
+    }
+
+    /**
+     * Adds an empty cell that is not in the table yet
+     */
+    private Cell addCell(long key){
+        // At most three quarters full, so the probes stay short
+        if((cellCount + 1) * 4L > cells.length * 3L) {
+            long[] oldKeys = cellKeys;
+            Cell[] oldCells = cells;
+            cellKeys = new long[oldKeys.length * 2];
+            cells = new Cell[oldCells.length * 2];
+            for(int i = 0; i < oldCells.length; ++i)
+                if(oldCells[i] != null) insertCell(oldKeys[i], oldCells[i]);
+        }
+        Cell cell = new Cell();
+        insertCell(key, cell);
+        ++cellCount;
+        return cell;
+    }
+
+    private void insertCell(long key, Cell cell){
+        int mask = cells.length - 1;
+        int i = slot(key, mask);
+        while(cells[i] != null) i = (i + 1) & mask;
+        cellKeys[i] = key;
+        cells[i] = cell;
+    }
+
+    /**
+     * Removes the cell from the table, moving back the cells after it that would
+     * otherwise no longer be found, so no deleted markers are needed
+     */
+    private void removeCell(long key){
+        int mask = cells.length - 1;
+        int hole = slot(key, mask);
+        while(cellKeys[hole] != key || cells[hole] == null) hole = (hole + 1) & mask;
+        for(int i = (hole + 1) & mask; cells[i] != null; i = (i + 1) & mask){
+            // A cell may fill the hole if the hole lies between its slot and where it is
+            int home = slot(cellKeys[i], mask);
+            if(((i - home) & mask) >= ((i - hole) & mask)) {
+                cellKeys[hole] = cellKeys[i];
+                cells[hole] = cells[i];
+                hole = i;
+            }
+        }
+        cells[hole] = null;
+        --cellCount;
+    }
+
+    /**
+     * Calls the action with every position within the radius of the tile
+     * @param tileX The x value of the tile position.
+     * @param tileY The y value of the tile position.
+     * @param radius The largest distance in tiles, inclusive
+     * @param action The action
+     */
+    public void forEachWithin(int tileX, int tileY, int radius, Consumer<WorldPosition2D> action){
+        findWithin(tileX, tileY, radius, action, false);
+    }
+
+    /**
+     * Returns every position within the radius of the tile
+     * @param tileX The x value of the tile position.
+     * @param tileY The y value of the tile position.
+     * @param radius The largest distance in tiles, inclusive
+     * @return A new list of the positions, in no particular order
+     */
+    public ArrayList<WorldPosition2D> within(int tileX, int tileY, int radius){
+        ArrayList<WorldPosition2D> found = new ArrayList<>();
+        findWithin(tileX, tileY, radius, found::add, false);
+        return found;
+    }
+
+    /**
+     * Returns whether any position is within the radius of the tile. Stops at the first one found.
+     * @param tileX The x value of the tile position.
+     * @param tileY The y value of the tile position.
+     * @param radius The largest distance in tiles, inclusive
+     */
+    public boolean anyWithin(int tileX, int tileY, int radius){
+        return findWithin(tileX, tileY, radius, null, true);
+    }
+
+    private boolean findWithin(int tileX, int tileY, int radius, Consumer<WorldPosition2D> action, boolean stopAtFirst){
+        if(radius < 0) {
+            throw new IllegalArgumentException("radius must not be negative.");
+        }
+        long radiusSquared = (long)radius * radius;
+        int fromX = Math.max(minCellX, Math.floorDiv(tileX - radius, cellSize));
+        int fromY = Math.max(minCellY, Math.floorDiv(tileY - radius, cellSize));
+        int toX = Math.min(maxCellX, Math.floorDiv(tileX + radius, cellSize));
+        int toY = Math.min(maxCellY, Math.floorDiv(tileY + radius, cellSize));
+        for(int cellY = fromY; cellY <= toY; ++cellY){
+            for(int cellX = fromX; cellX <= toX; ++cellX){
+                Cell cell = cellAt(cellX, cellY);
+                if(cell == null) continue;
+                for(int i = 0; i < cell.size; ++i){
+                    Entry entry = cell.entries[i];
+                    long dx = entry.tileX - tileX, dy = entry.tileY - tileY;
+                    if(dx * dx + dy * dy > radiusSquared) continue;
+                    if(stopAtFirst) return true;
+                    action.accept(entry.position);
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Calls the action with every position in the box
+     * @param minTileX The lowest x value of the box, inclusive.
+     * @param minTileY The lowest y value of the box, inclusive.
+     * @param maxTileX The highest x value of the box, inclusive.
+     * @param maxTileY The highest y value of the box, inclusive.
+     * @param action The action
+     */
+    public void forEachInBox(int minTileX, int minTileY, int maxTileX, int maxTileY, Consumer<WorldPosition2D> action){
+        int fromX = Math.max(minCellX, Math.floorDiv(minTileX, cellSize));
+        int fromY = Math.max(minCellY, Math.floorDiv(minTileY, cellSize));
+        int toX = Math.min(maxCellX, Math.floorDiv(maxTileX, cellSize));
+        int toY = Math.min(maxCellY, Math.floorDiv(maxTileY, cellSize));
+        for(int cellY = fromY; cellY <= toY; ++cellY){
+            for(int cellX = fromX; cellX <= toX; ++cellX){
+                Cell cell = cellAt(cellX, cellY);
+                if(cell == null) continue;
+                for(int i = 0; i < cell.size; ++i){
+                    Entry entry = cell.entries[i];
+                    if(entry.tileX >= minTileX && entry.tileX <= maxTileX && entry.tileY >= minTileY && entry.tileY <= maxTileY)
+                        action.accept(entry.position);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the position nearest to the tile
+     * @param tileX The x value of the tile position.
+     * @param tileY The y value of the tile position.
+     * @return The nearest position, or null if the index is empty
+     */
+    public WorldPosition2D nearest(int tileX, int tileY){
+        ArrayList<WorldPosition2D> found = nearest(tileX, tileY, 1);
+        return found.isEmpty() ? null : found.get(0);
+    }
+
+    /**
+     * Returns the k positions nearest to the tile. The cells are searched in rings around
+     * the tile, stopping once no closer position can be in the next ring.
+     * @param tileX The x value of the tile position.
+     * @param tileY The y value of the tile position.
+     * @param k The number of positions to find
+     * @return A new list of at most k positions, nearest first
+     */
+    public ArrayList<WorldPosition2D> nearest(int tileX, int tileY, int k){
+        if(k < 0) {
+            throw new IllegalArgumentException("k must not be negative.");
+        }
+        // The best k so far, as a max-heap on the distance
+        Entry[] best = new Entry[Math.min(k, entries.size())];
+        long[] distances = new long[best.length];
+        int count = 0;
+
+        if(best.length > 0){
+            int centerX = Math.floorDiv(tileX, cellSize);
+            int centerY = Math.floorDiv(tileY, cellSize);
+            int maxRing = Math.max(Math.max(centerX - minCellX, maxCellX - centerX), Math.max(centerY - minCellY, maxCellY - centerY));
+            for(int ring = 0; ring <= maxRing; ++ring){
+                // Every position in this ring or beyond is at least this far away
+                if(count == best.length && ring > 0) {
+                    long reach = (long)(ring - 1) * cellSize + 1;
+                    if(reach * reach > distances[0]) break;
+                }
+                for(int cellY = centerY - ring; cellY <= centerY + ring; ++cellY){
+                    boolean edgeRow = cellY == centerY - ring || cellY == centerY + ring;
+                    for(int cellX = centerX - ring; cellX <= centerX + ring; cellX += edgeRow || ring == 0 ? 1 : 2 * ring){
+                        Cell cell = cellAt(cellX, cellY);
+                        if(cell == null) continue;
+                        for(int i = 0; i < cell.size; ++i){
+                            Entry entry = cell.entries[i];
+                            long dx = entry.tileX - tileX, dy = entry.tileY - tileY;
+                            long distance = dx * dx + dy * dy;
+                            if(count < best.length){
+                                best[count] = entry;
+                                distances[count] = distance;
+                                siftUp(best, distances, count++);
+                            }else if(distance < distances[0]){
+                                best[0] = entry;
+                                distances[0] = distance;
+                                siftDown(best, distances, count);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        // Popping the max-heap gives the positions farthest first
+        WorldPosition2D[] sorted = new WorldPosition2D[count];
+        for(int n = count; n > 0; --n){
+            sorted[n - 1] = best[0].position;
+            best[0] = best[n - 1];
+            distances[0] = distances[n - 1];
+            siftDown(best, distances, n - 1);
+        }
+        return new ArrayList<>(Arrays.asList(sorted));
+    }
+
+    private static void siftUp(Entry[] heap, long[] distances, int i){
+        while(i > 0){
+            int parent = (i - 1) >> 1;
+            if(distances[parent] >= distances[i]) return;
+            swap(heap, distances, i, parent);
+            i = parent;
+        }
+    }
+
+    private static void siftDown(Entry[] heap, long[] distances, int size){
+        int i = 0;
+        while(true){
+            int largest = i;
+            int left = 2 * i + 1, right = left + 1;
+            if(left < size && distances[left] > distances[largest]) largest = left;
+            if(right < size && distances[right] > distances[largest]) largest = right;
+            if(largest == i) return;
+            swap(heap, distances, i, largest);
+            i = largest;
+        }
+    }
+
+    private static void swap(Entry[] heap, long[] distances, int a, int b){
+        Entry entry = heap[a];
+        heap[a] = heap[b];
+        heap[b] = entry;
+        long distance = distances[a];
+        distances[a] = distances[b];
+        distances[b] = distance;
+    }
+}
@@ -0,0 +1,233 @@
+package org.tyoda.wurmunlimited.mods.CommonLibrary;
+
+import java.io.Closeable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+/**
+ * Keeps random positions ready, so they do not have to be searched for on the server thread.
+ * A low priority daemon thread fills the pool with positions that passed the checks of
+ * WorldPosition2D.getRandomPos(), at most refillRate of them a second.
+ * As the terrain or villages might have changed since, take() checks the tile of a position
+ * again before handing it out, and throws it away if it is no longer eligible.
+ */
+public final class PositionPool implements Closeable {
+    /**
+     * The time the worker waits after it failed to find a position, in milliseconds
+     */
+    private static final long failureBackoffMillis = 1000;
+
+    private final int capacity;
+    private final int padding;
+    private final Function<RandomSource, WorldPosition2D> generator;
+    private final ArrayBlockingQueue<WorldPosition2D> positions;
+    private volatile double refillRate;
+    private Thread worker;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder stale = new LongAdder();
+    private final LongAdder generated = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    /**
+     * Initializes a PositionPool that searches positions like WorldPosition2D.getRandomPos(padding, 500).
+     * The pool is filled once start() is called.
+     * @param capacity The number of positions kept ready. Must be positive.
+     * @param padding The minimum distance from the map's borders.
+     */
+    public PositionPool(int capacity, int padding){
+        this(capacity, padding, random -> WorldPosition2D.getRandomPos(padding, 500, random));
+    }
+
+    /**
+     * Initializes a PositionPool that draws its positions from a SpawnIndex.
+     * The pool is filled once start() is called.
+     * @param capacity The number of positions kept ready. Must be positive.
+     * @param index The index to draw the positions from
+     */
+    public PositionPool(int capacity, SpawnIndex index){
+        this(capacity, index.getPadding(), index::getRandomPos);
+    }
+
+    private PositionPool(int capacity, int padding, Function<RandomSource, WorldPosition2D> generator){
+        if(capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive.");
+        }
+        this.capacity = capacity;
+        this.padding = padding;
+        this.generator = generator;
+        positions = new ArrayBlockingQueue<>(capacity);
+        refillRate = Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Starts the worker that fills the pool. Does nothing if it is already running.
+     * Starts a new one if the last one stopped because of an error.
+     */
+    public synchronized void start(){
+        if(worker != null) return;
+        worker = new Thread(this::fill, "CommonLibrary-PositionPool");
+        worker.setDaemon(true);
+        worker.setPriority(Thread.MIN_PRIORITY);
+        worker.start();
+    }
+
+    /**
+     * Stops the worker. The positions already in the pool can still be taken.
+     */
+    @Override
+    public synchronized void close(){
+        if(worker == null) return;
+        worker.interrupt();
+        worker = null;
+    }
+
+    private void fill(){
+        RandomSource random = RandomSource.splittable();
+        long next = System.nanoTime();
+        try{
+            while(!Thread.currentThread().isInterrupted()){
+                double rate = refillRate;
+                if(rate < Double.POSITIVE_INFINITY){
+                    long wait = next - System.nanoTime();
+                    if(wait > 0) {
+                        LockSupport.parkNanos(this, wait);
+                        continue;
+                    }
+                    // Do not save up for a burst while the pool was full
+                    next = Math.max(next, System.nanoTime() - (long)(1e9 / rate)) + (long)(1e9 / rate);
+                }
+
+                WorldPosition2D position = generator.apply(random);
+                if(position == null) {
+                    failures.increment();
+                    Thread.sleep(failureBackoffMillis);
+                    continue;
+                }
+                generated.increment();
+                positions.put(position);
+            }
+        }catch(InterruptedException ignored){
+        }catch(RuntimeException e){
+            CommonLibrary.logger.severe("PositionPool worker stopped: " + e);
+        }finally{
+            // So start() can start a new worker, unless close() and start() already did
+            synchronized(this){
+                if(worker == Thread.currentThread()) worker = null;
+            }
+        }
+    }
+
+    /**
+     * Returns a position from the pool, or searches one on the calling thread if the pool
+     * is empty, like WorldPosition2D.getRandomPos(padding, 500) would.
+     * @return A random position, or null if none was found.
+     */
+    public WorldPosition2D take(){
+        WorldPosition2D position = poll();
+        if(position != null) return position;
+        misses.increment();
+        return generator.apply(CommonLibrary.randomSource);
+    }
+
+    /**
+     * Returns a position from the pool without searching for one.
+     * @return A random position, or null if the pool is empty.
+     */
+    public WorldPosition2D poll(){
+        WorldPosition2D position;
+        while((position = positions.poll()) != null){
+            if(WorldPosition2D.checkTile(position.getTileX(), position.getTileY()) == WorldPosition2D.tileEligible) {
+                hits.increment();
+                return position;
+            }
+            stale.increment();
+        }
+        return null;
+    }
+
+    /**
+     * Empties the pool, for example after large changes to the map.
+     */
+    public void clear(){
+        positions.clear();
+    }
+
+    public int getCapacity(){
+        return capacity;
+    }
+
+    public int getPadding(){
+        return padding;
+    }
+
+    /**
+     * Returns the number of positions ready
+     */
+    public int size(){
+        return positions.size();
+    }
+
+    /**
+     * Returns the most positions the worker searches a second
+     */
+    public double getRefillRate(){
+        return refillRate;
+    }
+
+    /**
+     * Sets the most positions the worker searches a second, to keep it from taking
+     * too much of the processor or of the locks of the map while it refills.
+     * @param _refillRate Positions per second. Must be positive, Double.POSITIVE_INFINITY for no limit.
+     */
+    public void setRefillRate(double _refillRate){
+        if(!(_refillRate > 0)) {
+            throw new IllegalArgumentException("refillRate must be positive.");
+        }
+        refillRate = _refillRate;
+    }
+
+    /**
+     * Returns the number of positions handed out from the pool
+     */
+    public long getHits(){
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of times take() found the pool empty
+     */
+    public long getMisses(){
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of positions thrown away because their tile was no longer eligible
+     */
+    public long getStale(){
+        return stale.sum();
+    }
+
+    /**
+     * Returns the number of positions the worker has found
+     */
+    public long getGenerated(){
+        return generated.sum();
+    }
+
+    /**
+     * Returns the number of times the worker failed to find a position
+     */
+    public long getFailures(){
+        return failures.sum();
+    }
+
+    @Override
+    public String toString(){
+        return String.format("PositionPool[size %d/%d, hits %d, misses %d, stale %d, generated %d, failures %d]",
+                size(), capacity, getHits(), getMisses(), getStale(), getGenerated(), getFailures());
+    }
+}
@@ -0,0 +1,382 @@
+package org.tyoda.wurmunlimited.mods.CommonLibrary;
+
+import java.util.HashMap;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * An immutable copy of the values of a SimpleProperties, made by SimpleProperties.snapshot().
+ * It has the same getters, but they take no locks, and every value is parsed
+ * only the first time it is asked for as a given type.
+ * Arrays are parsed once and a copy of them is returned, so callers may modify them.
+ */
+public final class PropertiesSnapshot {
+    private static final BiFunction<String, String, Object> booleanParser = (value, delimiter) -> Boolean.parseBoolean(value);
+    private static final BiFunction<String, String, Object> byteParser = counting(Byte::parseByte);
+    private static final BiFunction<String, String, Object> shortParser = counting(Short::parseShort);
+    private static final BiFunction<String, String, Object> intParser = counting(Integer::parseInt);
+    private static final BiFunction<String, String, Object> floatParser = counting(Float::parseFloat);
+    private static final BiFunction<String, String, Object> longParser = counting(Long::parseLong);
+    // The array parsers of SimpleProperties count their own failures
+    private static final BiFunction<String, String, Object> byteArrayParser = SimpleProperties::parseByteArray;
+    private static final BiFunction<String, String, Object> shortArrayParser = SimpleProperties::parseShortArray;
+    private static final BiFunction<String, String, Object> intArrayParser = SimpleProperties::parseIntArray;
+    private static final BiFunction<String, String, Object> longArrayParser = SimpleProperties::parseLongArray;
+    private static final BiFunction<String, String, Object> floatArrayParser = SimpleProperties::parseFloatArray;
+    private static final BiFunction<String, String, Object> booleanArrayParser = SimpleProperties::parseBooleanArray;
+    private static final BiFunction<String, String, Object> stringArrayParser = SimpleProperties::parseStringArray;
+
+    private final HashMap<String, String> values = new HashMap<>();
+    private final String defaultDelimiter;
+
+    private final ConcurrentHashMap<String, Object> booleans = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Object> bytes = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Object> shorts = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Object> ints = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Object> floats = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Object> longs = new ConcurrentHashMap<>();
+    private final ArrayCache byteArrays = new ArrayCache(byteArrayParser);
+    private final ArrayCache shortArrays = new ArrayCache(shortArrayParser);
+    private final ArrayCache intArrays = new ArrayCache(intArrayParser);
+    private final ArrayCache longArrays = new ArrayCache(longArrayParser);
+    private final ArrayCache floatArrays = new ArrayCache(floatArrayParser);
+    private final ArrayCache booleanArrays = new ArrayCache(booleanArrayParser);
+    private final ArrayCache stringArrays = new ArrayCache(stringArrayParser);
+
+    PropertiesSnapshot(Properties properties, String defaultDelimiter){
+        this.defaultDelimiter = defaultDelimiter;
+        for(String key : properties.stringPropertyNames())
+            values.put(key, properties.getProperty(key));
+    }
+
+    /**
+     * Returns the parsed value, parsing and caching it if it is not cached yet.
+     * Returns null if the key is not present.
+     */
+    private Object get(ConcurrentHashMap<String, Object> cache, String key, BiFunction<String, String, Object> parser){
+        return get(cache, key, null, parser);
+    }
+
+    private Object get(ConcurrentHashMap<String, Object> cache, String key, String delimiter,
+                       BiFunction<String, String, Object> parser){
+        SimpleProperties.lookups.increment();
+        Object cached = cache.get(key);
+        if(cached != null) return cached;
+        String value = values.get(key);
+        if(value == null) {
+            SimpleProperties.misses.increment();
+            return null;
+        }
+
+        Object parsed = parser.apply(value, delimiter);
+        Object previous = cache.putIfAbsent(key, parsed);
+        return previous == null ? parsed : previous;
+    }
+
+    /**
+     * Counts the values the parser fails on in CommonLibrary.metrics.
+     */
+    private static BiFunction<String, String, Object> counting(Function<String, Object> parser){
+        return (value, delimiter) -> {
+            try{
+                return parser.apply(value);
+            }catch(NumberFormatException e){
+                SimpleProperties.parseFailures.increment();
+                throw e;
+            }
+        };
+    }
+
+    /**
+     * The parsed arrays of one type. Arrays with the default delimiter are cached by
+     * their key, others by their delimiter and then their key.
+     */
+    private final class ArrayCache {
+        private final BiFunction<String, String, Object> parser;
+        private final ConcurrentHashMap<String, Object> defaultArrays = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<String, ConcurrentHashMap<String, Object>> otherArrays = new ConcurrentHashMap<>();
+
+        ArrayCache(BiFunction<String, String, Object> parser){
+            this.parser = parser;
+        }
+
+        Object get(String key, String delimiter){
+            if(delimiter.equals(defaultDelimiter)) return PropertiesSnapshot.this.get(defaultArrays, key, delimiter, parser);
+            // computeIfAbsent locks even when the delimiter is present, so check first
+            ConcurrentHashMap<String, Object> arrays = otherArrays.get(delimiter);
+            if(arrays == null) arrays = otherArrays.computeIfAbsent(delimiter, d -> new ConcurrentHashMap<>());
+            return PropertiesSnapshot.this.get(arrays, key, delimiter, parser);
+        }
+    }
+
+    /**
+     * Returns the delimiter used by array functions if one is not supplied
+     */
+    public String getDefaultDelimiter(){
+        return defaultDelimiter;
+    }
+
+    /**
+     * Returns whether the key is present
+     * @param key The property key
+     */
+    public boolean containsKey(String key){
+        return values.containsKey(key);
+    }
+
+    /**
+     * Gets the value associated with the key, or the default value
+     * if key is not present in the properties list.
+     * @param key The property key
+     * @param def The default value
+     * @return The value in properties if it exists or the default value
+     */
+    public boolean getBoolean(String key, boolean def){
+        Object value = get(booleans, key, booleanParser);
+        return value == null ? def : (Boolean)value;
+    }
+
+    /**
+     * Gets the value associated with the key, or the default value
+     * if key is not present in the properties list.
+     * @param key The property key
+     * @param def The default value
+     * @return The value in properties if it exists or the default value
+     */
+    public byte getByte(String key, byte def){
+        Object value = get(bytes, key, byteParser);
+        return value == null ? def : (Byte)value;
+    }
+
+    /**
+     * Gets the value associated with the key, or the default value
+     * if key is not present in the properties list.
+     * @param key The property key
+     * @param def The default value
+     * @return The value in properties if it exists or the default value
+     */
+    public short getShort(String key, short def){
+        Object value = get(shorts, key, shortParser);
+        return value == null ? def : (Short)value;
+    }
+
+    /**
+     * Gets the value associated with the key, or the default value
+     * if key is not present in the properties list.
+     * @param key The property key
+     * @param def The default value
+     * @return The value in properties if it exists or the default value
+     */
+    public int getInt(String key, int def){
+        Object value = get(ints, key, intParser);
+        return value == null ? def : (Integer)value;
+    }
+
+    /**
+     * Gets the value associated with the key, or the default value
+     * if key is not present in the properties list.
+     * @param key The property key
+     * @param def The default value
+     * @return The value in properties if it exists or the default value
+     */
+    public float getFloat(String key, float def){
+        Object value = get(floats, key, floatParser);
+        return value == null ? def : (Float)value;
+    }
+
+    /**
+     * Gets the value associated with the key, or the default value
+     * if key is not present in the properties list.
+     * @param key The property key
+     * @param def The default value
+     * @return The value in properties if it exists or the default value
+     */
+    public long getLong(String key, long def){
+        Object value = get(longs, key, longParser);
+        return value == null ? def : (Long)value;
+    }
+
+    /**
+     * Gets the value associated with the key, or the default value
+     * if key is not present in the properties list.
+     * @param key The property key
+     * @param def The default value
+     * @return The value in properties if it exists or the default value
+     */
+    public String getString(String key, String def){
+        String value = values.get(key);
+        SimpleProperties.lookups.increment();
+        if(value == null) SimpleProperties.misses.increment();
+        return value == null ? def : value;
+    }
+
+    /**
+     * Gets the value associated with the key as a byte array, or the default value
+     * if key is not present in the properties list.
+     * @param key The property key
+     * @param def The default value
+     * @return A copy of the array parsed from the value in properties if it exists or the default value
+     */
+    public byte[] getByteArray(String key, byte[] def){
+        return getByteArray(key, def, defaultDelimiter);
+    }
+
+    /**
+     * Gets the value associated with the key as a byte array, or the default value
+     * if key is not present in the properties list.
+     * @param key The property key
+     * @param def The default value
+     * @param delimiter The string the values are separated by
+     * @return A copy of the array parsed from the value in properties if it exists or the default value
+     */
+    public byte[] getByteArray(String key, byte[] def, String delimiter){
+        Object value = byteArrays.get(key, delimiter);
+        return value == null ? def : ((byte[])value).clone();
+    }
+
+    /**
+     * Gets the value associated with the key as a short array, or the default value
+     * if key is not present in the properties list.
+     * @param key The property key
+     * @param def The default value
+     * @return A copy of the array parsed from the value in properties if it exists or the default value
+     */
+    public short[] getShortArray(String key, short[] def){
+        return getShortArray(key, def, defaultDelimiter);
+    }
+
+    /**
+     * Gets the value associated with the key as a short array, or the default value
+     * if key is not present in the properties list.
+     * @param key The property key
+     * @param def The default value
+     * @param delimiter The string the values are separated by
+     * @return A copy of the array parsed from the value in properties if it exists or the default value
+     */
+    public short[] getShortArray(String key, short[] def, String delimiter){
+        Object value = shortArrays.get(key, delimiter);
+        return value == null ? def : ((short[])value).clone();
+    }
+
+    /**
+     * Gets the value associated with the key as an int array, or the default value
+     * if key is not present in the properties list.
+     * @param key The property key
+     * @param def The default value
+     * @return A copy of the array parsed from the value in properties if it exists or the default value
+     */
+    public int[] getIntArray(String key, int[] def){
+        return getIntArray(key, def, defaultDelimiter);
+    }
+
+    /**
+     * Gets the value associated with the key as an int array, or the default value
+     * if key is not present in the properties list.
+     * @param key The property key
+     * @param def The default value
+     * @param delimiter The string the values are separated by
+     * @return A copy of the array parsed from the value in properties if it exists or the default value
+     */
+    public int[] getIntArray(String key, int[] def, String delimiter){
+        Object value = intArrays.get(key, delimiter);
+        return value == null ? def : ((int[])value).clone();
+    }
+
+    /**
+     * Gets the value associated with the key as a long array, or the default value
+     * if key is not present in the properties list.
+     * @param key The property key
+     * @param def The default value
+     * @return A copy of the array parsed from the value in properties if it exists or the default value
+     */
+    public long[] getLongArray(String key, long[] def){
+        return getLongArray(key, def, defaultDelimiter);
+    }
+
+    /**
+     * Gets the value associated with the key as a long array, or the default value
+     * if key is not present in the properties list.
+     * @param key The property key
+     * @param def The default value
+     * @param delimiter The string the values are separated by
+     * @return A copy of the array parsed from the value in properties if it exists or the default value
+     */
+    public long[] getLongArray(String key, long[] def, String delimiter){
+        Object value = longArrays.get(key, delimiter);
+        return value == null ? def : ((long[])value).clone();
+    }
+
+    /**
+     * Gets the value associated with the key as a float array, or the default value
+     * if key is not present in the properties list.
+     * @param key The property key
+     * @param def The default value
+     * @return A copy of the array parsed from the value in properties if it exists or the default value
+     */
+    public float[] getFloatArray(String key, float[] def){
+        return getFloatArray(key, def, defaultDelimiter);
+    }
+
+    /**
+     * Gets the value associated with the key as a float array, or the default value
+     * if key is not present in the properties list.
+     * @param key The property key
+     * @param def The default value
+     * @param delimiter The string the values are separated by
+     * @return A copy of the array parsed from the value in properties if it exists or the default value
+     */
+    public float[] getFloatArray(String key, float[] def, String delimiter){
+        Object value = floatArrays.get(key, delimiter);
+        return value == null ? def : ((float[])value).clone();
+    }
+
+    /**
+     * Gets the value associated with the key as a boolean array, or the default value
+     * if key is not present in the properties list.
+     * @param key The property key
+     * @param def The default value
+     * @return A copy of the array parsed from the value in properties if it exists or the default value
+     */
+    public boolean[] getBooleanArray(String key, boolean[] def){
+        return getBooleanArray(key, def, defaultDelimiter);
+    }
+
+    /**
+     * Gets the value associated with the key as a boolean array, or the default value
+     * if key is not present in the properties list.
+     * @param key The property key
+     * @param def The default value
+     * @param delimiter The string the values are separated by
+     * @return A copy of the array parsed from the value in properties if it exists or the default value
+     */
+    public boolean[] getBooleanArray(String key, boolean[] def, String delimiter){
+        Object value = booleanArrays.get(key, delimiter);
+        return value == null ? def : ((boolean[])value).clone();
+    }
+
+    /**
+     * Gets the value associated with the key as a String array, or the default value
+     * if key is not present in the properties list.
+     * @param key The property key
+     * @param def The default value
+     * @return A copy of the array parsed from the value in properties if it exists or the default value
+     */
+    public String[] getStringArray(String key, String[] def){
+        return getStringArray(key, def, defaultDelimiter);
+    }
+
+    /**
+     * Gets the value associated with the key as a String array, or the default value
+     * if key is not present in the properties list.
+     * @param key The property key
+     * @param def The default value
+     * @param delimiter The string the values are separated by
+     * @return A copy of the array parsed from the value in properties if it exists or the default value
+     */
+    public String[] getStringArray(String key, String[] def, String delimiter){
+        Object value = stringArrays.get(key, delimiter);
+        return value == null ? def : ((String[])value).clone();
+    }
+}
@@ -0,0 +1,205 @@
+package org.tyoda.wurmunlimited.mods.CommonLibrary;
+
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * The distribution the quality of generated items is drawn from.
+ * Apart from the default uniform one, every distribution is stored as a table
+ * of its inverse cumulative distribution function, computed once when it is made.
+ * Drawing a quality is then one draw and a linear interpolation in the table,
+ * whatever the shape of the distribution.
+ */
+public final class QualityDistribution {
+    /**
+     * The number of intervals in the inverse-CDF tables
+     */
+    public static final int tableSize = 1024;
+    private static final QualityDistribution uniform = new QualityDistribution(null);
+
+    /**
+     * The quality at every probability i/tableSize, or null for the default uniform distribution
+     */
+    private final float[] quantiles;
+
+    private QualityDistribution(float[] quantiles){
+        this.quantiles = quantiles;
+    }
+
+    /**
+     * Returns the distribution LootTable has always used, uniform between 0 and 100.
+     */
+    public static QualityDistribution uniform(){
+        return uniform;
+    }
+
+    /**
+     * Returns a uniform distribution between min and max.
+     * @param min The lowest quality [0..100]
+     * @param max The highest quality [0..100]
+     */
+    public static QualityDistribution uniform(float min, float max){
+        checkRange(min, max);
+        return fromInverseCdf(p -> min + p * (max - min));
+    }
+
+    /**
+     * Returns a normal distribution, with the qualities outside of [min, max]
+     * clamped to the nearest bound.
+     * @param mean The mean of the normal distribution
+     * @param deviation The standard deviation of the normal distribution. Must be positive.
+     * @param min The lowest quality [0..100]
+     * @param max The highest quality [0..100]
+     */
+    public static QualityDistribution clampedNormal(float mean, float deviation, float min, float max){
+        checkRange(min, max);
+        if(!(deviation > 0)) {
+            throw new IllegalArgumentException("deviation must be positive.");
+        }
+        return fromInverseCdf(p -> Math.max(min, Math.min(max, mean + deviation * inverseNormal(p))));
+    }
+
+    /**
+     * Returns a triangular distribution, most likely at mode and falling off
+     * linearly to min and max.
+     * @param min The lowest quality [0..100]
+     * @param mode The most likely quality [min..max]
+     * @param max The highest quality [0..100]
+     */
+    public static QualityDistribution triangular(float min, float mode, float max){
+        checkRange(min, max);
+        if(mode < min || mode > max) {
+            throw new IllegalArgumentException("mode must be between min and max, inclusive.");
+        }
+        double width = max - min;
+        double split = width == 0 ? 0 : (mode - min) / width;
+        return fromInverseCdf(p -> p < split
+                ? min + Math.sqrt(p * width * (mode - min))
+                : max - Math.sqrt((1 - p) * width * (max - mode)));
+    }
+
+    /**
+     * Returns a distribution defined by a histogram. A quality between qualities[i] and
+     * qualities[i+1] is drawn with a chance proportional to weights[i], uniformly within that range.
+     * @param qualities The bounds of the ranges in ascending order [0..100]
+     * @param weights The relative chance of each range. Must have one less element than qualities.
+     */
+    public static QualityDistribution piecewise(float[] qualities, float[] weights){
+        if(qualities.length < 2 || weights.length != qualities.length - 1) {
+            throw new IllegalArgumentException("There must be at least two qualities and one less weight than qualities.");
+        }
+        checkRange(qualities[0], qualities[qualities.length - 1]);
+        double[] cumulative = new double[qualities.length];
+        for(int i = 0; i < weights.length; ++i){
+            if(qualities[i+1] < qualities[i]) {
+                throw new IllegalArgumentException("qualities must be in ascending order.");
+            }
+            if(!(weights[i] >= 0) || Float.isInfinite(weights[i])) {
+                throw new IllegalArgumentException("weights must not be negative.");
+            }
+            cumulative[i+1] = cumulative[i] + weights[i];
+        }
+        double total = cumulative[weights.length];
+        if(!(total > 0)) {
+            throw new IllegalArgumentException("At least one weight must be positive.");
+        }
+        return fromInverseCdf(p -> {
+            double target = p * total;
+            int range = 0;
+            while(range < weights.length - 1 && (cumulative[range+1] < target || weights[range] == 0)) ++range;
+            double within = weights[range] == 0 ? 0 : (target - cumulative[range]) / weights[range];
+            within = Math.max(0, Math.min(1, within));
+            return qualities[range] + within * (qualities[range+1] - qualities[range]);
+        });
+    }
+
+    /**
+     * Returns a user defined distribution. The function is only called while
+     * the table is made, never while drawing.
+     * @param inverseCdf Maps a probability [0..1] to the quality below which that portion of
+     *                   the qualities fall. Must not decrease. Results are clamped to [0..100].
+     */
+    public static QualityDistribution fromInverseCdf(DoubleUnaryOperator inverseCdf){
+        float[] quantiles = new float[tableSize + 1];
+        for(int i = 0; i <= tableSize; ++i){
+            double quality = inverseCdf.applyAsDouble((double)i / tableSize);
+            if(Double.isNaN(quality)) {
+                throw new IllegalArgumentException("The inverse CDF returned NaN for " + ((double)i / tableSize));
+            }
+            quantiles[i] = (float)Math.max(0, Math.min(100, quality));
+            if(i > 0 && quantiles[i] < quantiles[i-1]) {
+                throw new IllegalArgumentException("The inverse CDF must not decrease.");
+            }
+        }
+        return new QualityDistribution(quantiles);
+    }
+
+    private static void checkRange(float min, float max){
+        if(!(min >= 0 && max <= 100 && min <= max)) {
+            throw new IllegalArgumentException("min and max must be between 0 and 100, inclusive, and min must not be above max.");
+        }
+    }
+
+    /**
+     * Returns a random quality from the distribution.
+     * @param random The RandomSource to roll with
+     * @return A float between 0 and 100
+     */
+    public float sample(RandomSource random){
+        if(quantiles == null) return random.nextInt(100)+random.nextFloat();
+
+        double position = random.nextDouble() * tableSize;
+        int i = (int)position;
+        float within = (float)(position - i);
+        return quantiles[i] + (quantiles[i+1] - quantiles[i]) * within;
+    }
+
+    /**
+     * Returns the quality below which the given portion of the qualities fall.
+     * @param probability The portion [0..1]
+     */
+    public float quantile(double probability){
+        if(probability < 0 || probability > 1) {
+            throw new IllegalArgumentException("probability must be between zero and one, inclusive.");
+        }
+        if(quantiles == null) return (float)(probability * 100);
+
+        double position = probability * tableSize;
+        int i = Math.min((int)position, tableSize - 1);
+        float within = (float)(position - i);
+        return quantiles[i] + (quantiles[i+1] - quantiles[i]) * within;
+    }
+
+    /**
+     * The inverse of the standard normal CDF, using Acklam's rational approximation.
+     * Its relative error is below 1.2e-9, more than enough for a float table.
+     */
+    private static double inverseNormal(double p){
+        if(p <= 0) return Double.NEGATIVE_INFINITY;
+        if(p >= 1) return Double.POSITIVE_INFINITY;
+
+        final double[] a = {-3.969683028665376e+01, 2.209460984245205e+02, -2.759285104469687e+02,
+                1.383577518672690e+02, -3.066479806614716e+01, 2.506628277459239e+00};
+        final double[] b = {-5.447609879822406e+01, 1.615858368580409e+02, -1.556989798598866e+02,
+                6.680131188771972e+01, -1.328068155288572e+01};
+        final double[] c = {-7.784894002430293e-03, -3.223964580411365e-01, -2.400758277161838e+00,
+                -2.549732539343734e+00, 4.374664141464968e+00, 2.938163982698783e+00};
+        final double[] d = {7.784695709041462e-03, 3.224671290700398e-01, 2.445134137142996e+00,
+                3.754408661907416e+00};
+        final double low = 0.02425;
+
+        if(p < low){
+            double q = Math.sqrt(-2 * Math.log(p));
+            return (((((c[0]*q + c[1])*q + c[2])*q + c[3])*q + c[4])*q + c[5])
+                    / ((((d[0]*q + d[1])*q + d[2])*q + d[3])*q + 1);
+        }
+        if(p > 1 - low){
+            double q = Math.sqrt(-2 * Math.log(1 - p));
+            return -(((((c[0]*q + c[1])*q + c[2])*q + c[3])*q + c[4])*q + c[5])
+                    / ((((d[0]*q + d[1])*q + d[2])*q + d[3])*q + 1);
+        }
+        double q = p - 0.5;
+        double r = q * q;
+        return (((((a[0]*r + a[1])*r + a[2])*r + a[3])*r + a[4])*r + a[5])*q
+                / (((((b[0]*r + b[1])*r + b[2])*r + b[3])*r + b[4])*r + 1);
+    }
+}
@@ -0,0 +1,69 @@
+package org.tyoda.wurmunlimited.mods.CommonLibrary;
+
+/**
+ * A source of random numbers for the rolls done by CommonLibrary.
+ * Implementations do not have to be thread safe, except the one
+ * returned by threadLocal().
+ */
+public interface RandomSource {
+    /**
+     * Returns a random int between zero (inclusive) and bound (exclusive)
+     * @param bound The upper bound. Must be positive.
+     */
+    int nextInt(int bound);
+
+    /**
+     * Returns a random float between zero (inclusive) and one (exclusive)
+     */
+    float nextFloat();
+
+    /**
+     * Returns a random double between zero (inclusive) and one (exclusive)
+     */
+    double nextDouble();
+
+    /**
+     * Returns a random long
+     */
+    long nextLong();
+
+    /**
+     * Returns a new RandomSource that is statistically independent of this one,
+     * meant to be handed to another thread. Seeded sources derive the new
+     * source from their own state, so splitting them is reproducible.
+     */
+    RandomSource split();
+
+    /**
+     * Returns a RandomSource backed by ThreadLocalRandom. It can be shared between
+     * threads freely, as every thread rolls with its own generator.
+     */
+    static RandomSource threadLocal(){
+        return ThreadLocalRandomSource.INSTANCE;
+    }
+
+    /**
+     * Returns a new RandomSource backed by a SplittableRandom with a random seed.
+     */
+    static RandomSource splittable(){
+        return new SplittableRandomSource();
+    }
+
+    /**
+     * Returns a new RandomSource backed by a SplittableRandom.
+     * @param seed The seed of the SplittableRandom
+     */
+    static RandomSource splittable(long seed){
+        return new SplittableRandomSource(seed);
+    }
+
+    /**
+     * Returns a new deterministic RandomSource. It produces the same
+     * numbers as a java.util.Random created with the same seed, without
+     * the cost of synchronizing its seed between threads.
+     * @param seed The seed
+     */
+    static RandomSource seeded(long seed){
+        return new SeededRandomSource(seed);
+    }
+}
@@ -0,0 +1,113 @@
+package org.tyoda.wurmunlimited.mods.CommonLibrary;
+
+import java.util.Arrays;
+
+/**
+ * Rolls rarities with a single draw per item. Rolling the three chances one
+ * after the other and keeping the best is the same as one draw against the
+ * cumulative chances of fantastic, supreme-or-better and rare-or-better.
+ * For many items at once, fill() jumps from one rare+ item straight to the next,
+ * drawing the gap from a geometric distribution instead of rolling every item.
+ */
+public final class RarityRoller {
+    private final float rare;
+    private final float supreme;
+    private final float fantastic;
+    /**
+     * The chance of an item being at least fantastic, supreme and rare
+     */
+    private final double fantasticThreshold;
+    private final double supremeThreshold;
+    private final double rareThreshold;
+    /**
+     * The logarithm of the chance of an item not being rare+
+     */
+    private final double logMissChance;
+
+    /**
+     * Initializes a RarityRoller with the chances of the rarities.
+     * @param rare The chance of any one item being Rare. Must be between zero and one inclusive.
+     * @param supreme The chance of any one item being Supreme. Must be between zero and one inclusive.
+     * @param fantastic The chance of any one item being Fantastic. Must be between zero and one inclusive.
+     */
+    public RarityRoller(float rare, float supreme, float fantastic){
+        if((rare < 0 || rare > 1)
+            || (supreme < 0 || supreme > 1)
+            || (fantastic < 0 || fantastic > 1)) {
+            throw new IllegalArgumentException("Each chance must be a float between zero and one, inclusive.");
+        }
+        this.rare = rare;
+        this.supreme = supreme;
+        this.fantastic = fantastic;
+        fantasticThreshold = fantastic;
+        supremeThreshold = fantasticThreshold + (1 - fantasticThreshold) * supreme;
+        rareThreshold = supremeThreshold + (1 - supremeThreshold) * rare;
+        logMissChance = Math.log1p(-rareThreshold);
+    }
+
+    /**
+     * Returns a random rarity with a single draw.
+     * @param random The RandomSource to roll with
+     * @return A random byte between 0 and 3 (inclusive)
+     */
+    public byte roll(RandomSource random){
+        return rarityAt(random.nextDouble());
+    }
+
+    private byte rarityAt(double roll){
+        if(roll < fantasticThreshold) return 3;
+        if(roll < supremeThreshold) return 2;
+        if(roll < rareThreshold) return 1;
+        return 0;
+    }
+
+    /**
+     * Returns how many items in a row are not rare+ before the next one that is.
+     * @param random The RandomSource to roll with
+     * @return The number of items to skip, at most Integer.MAX_VALUE
+     */
+    public int skip(RandomSource random){
+        if(rareThreshold >= 1) return 0;
+        if(rareThreshold <= 0) return Integer.MAX_VALUE;
+        // 1 - nextDouble() is in (0, 1], so the logarithm is finite
+        double gap = Math.floor(Math.log(1 - random.nextDouble()) / logMissChance);
+        return gap >= Integer.MAX_VALUE ? Integer.MAX_VALUE : (int)gap;
+    }
+
+    /**
+     * Fills a range of the array with random rarities. Only the rare+ items take
+     * draws, so the number of draws grows with the chance of rare+ and not the
+     * number of items.
+     * @param rarities The array the rarities are written to
+     * @param from The index of the first item, inclusive
+     * @param to The index of the last item, exclusive
+     * @param random The RandomSource to roll with
+     */
+    public void fill(byte[] rarities, int from, int to, RandomSource random){
+        Arrays.fill(rarities, from, to, (byte)0);
+        long i = from + (long)skip(random);
+        while(i < to){
+            rarities[(int)i] = rarityAt(random.nextDouble() * rareThreshold);
+            i += 1L + skip(random);
+        }
+    }
+
+    /**
+     * Returns the chance of an item being rare, supreme or fantastic
+     */
+    public double getRarePlusChance(){
+        return rareThreshold;
+    }
+
+    public float getRareChance(){
+        return rare;
+    }
+
+    public float getSupremeChance(){
+        return supreme;
+    }
+
+    public float getFantasticChance(){
+        return fantastic;
+    }
+}
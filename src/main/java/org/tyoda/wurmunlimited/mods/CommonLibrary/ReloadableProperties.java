@@ -0,0 +1,338 @@
+package org.tyoda.wurmunlimited.mods.CommonLibrary;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A SimpleProperties backed by a properties file, that can read the file again
+ * while the server is running. Once startWatching() is called, changes to the file
+ * are noticed, and the file is read again when it has not changed for a short while,
+ * so an editor saving it in several steps only causes one reload.
+ * The file is read on a background thread, then all values are replaced in one step,
+ * while holding the lock of this object, which getProperty() takes as well, so a getter
+ * never sees a mix of old and new values. Readers that need several values to be
+ * consistent with each other should still read them from snapshot(), as a reload
+ * may happen between two getters.
+ * After the values are updated, the listeners of every changed key are notified.
+ */
+public class ReloadableProperties extends SimpleProperties implements Closeable {
+    /**
+     * Called when the value of a key changes on reload.
+     */
+    @FunctionalInterface
+    public interface ChangeListener {
+        /**
+         * @param key The property key
+         * @param oldValue The value before the reload, or null if the key was added
+         * @param newValue The value after the reload, or null if the key was removed
+         */
+        void changed(String key, String oldValue, String newValue);
+    }
+
+    /**
+     * The time the file must go unchanged before it is read again, in milliseconds
+     */
+    public static final long defaultDebounceMillis = 250;
+
+    private final transient Path file;
+    private final long debounceMillis;
+    private final transient ConcurrentHashMap<String, CopyOnWriteArrayList<ChangeListener>> keyListeners = new ConcurrentHashMap<>();
+    private final transient CopyOnWriteArrayList<ChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private final transient CopyOnWriteArrayList<Runnable> reloadListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Guards the watcher, the scheduler and the pending reload
+     */
+    private final transient Object watchLock = new Object();
+    private transient WatchService watchService;
+    private transient ScheduledThreadPoolExecutor scheduler;
+    private transient ScheduledFuture<?> pendingReload;
+    /**
+     * Makes sure two reloads never run at once, without blocking readers
+     */
+    private final transient Object reloadLock = new Object();
+
+    /**
+     * Initializes a ReloadableProperties with the values in the file.
+     * The file is not watched until startWatching() is called.
+     * @param file The properties file
+     * @throws IOException If the file could not be read
+     */
+    public ReloadableProperties(Path file) throws IOException {
+        this(file, defaultDebounceMillis);
+    }
+
+    /**
+     * Initializes a ReloadableProperties with the values in the file.
+     * The file is not watched until startWatching() is called.
+     * @param file The properties file
+     * @param debounceMillis The time the file must go unchanged before it is read again, in milliseconds
+     * @throws IOException If the file could not be read
+     */
+    public ReloadableProperties(Path file, long debounceMillis) throws IOException {
+        super();
+        if(debounceMillis < 0) {
+            throw new IllegalArgumentException("debounceMillis must not be negative.");
+        }
+        this.file = file.toAbsolutePath();
+        this.debounceMillis = debounceMillis;
+        reload();
+    }
+
+    /**
+     * Returns the file the values are read from
+     */
+    public Path getFile(){
+        return file;
+    }
+
+    /**
+     * Starts watching the file for changes on a daemon thread.
+     * Does nothing if the file is already watched.
+     * @throws IOException If the directory of the file could not be watched
+     */
+    public void startWatching() throws IOException {
+        synchronized(watchLock){
+            if(watchService != null) return;
+            Path directory = file.getParent();
+            WatchService service = directory.getFileSystem().newWatchService();
+            try{
+                directory.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            }catch(IOException e){
+                service.close();
+                throw e;
+            }
+            watchService = service;
+
+            scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+                Thread thread = new Thread(runnable, "CommonLibrary-PropertiesReload-" + file.getFileName());
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.setRemoveOnCancelPolicy(true);
+
+            Thread watcher = new Thread(() -> watch(service), "CommonLibrary-PropertiesWatcher-" + file.getFileName());
+            watcher.setDaemon(true);
+            watcher.start();
+        }
+    }
+
+    /**
+     * Returns whether the file is being watched
+     */
+    public boolean isWatching(){
+        synchronized(watchLock){
+            return watchService != null;
+        }
+    }
+
+    /**
+     * Stops watching the file. The values stay as they are.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized(watchLock){
+            if(watchService == null) return;
+            scheduler.shutdownNow();
+            scheduler = null;
+            pendingReload = null;
+            WatchService service = watchService;
+            watchService = null;
+            service.close();
+        }
+    }
+
+    private void watch(WatchService service){
+        try{
+            while(true){
+                WatchKey key = service.take();
+                boolean changed = false;
+                for(WatchEvent<?> event : key.pollEvents()){
+                    if(event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(event.context()))
+                        changed = true;
+                }
+                if(changed) scheduleReload();
+                if(!key.reset()) {
+                    CommonLibrary.logger.severe("Stopped watching " + file + ", its directory is no longer accessible.");
+                    return;
+                }
+            }
+        }catch(InterruptedException | ClosedWatchServiceException ignored){}
+    }
+
+    /**
+     * Reloads the file once it has not changed for debounceMillis,
+     * postponing a reload that is already waiting.
+     */
+    private void scheduleReload(){
+        synchronized(watchLock){
+            if(scheduler == null) return;
+            if(pendingReload != null) pendingReload.cancel(false);
+            pendingReload = scheduler.schedule(() -> {
+                try{
+                    reload();
+                }catch(IOException | RuntimeException e){
+                    CommonLibrary.logger.severe("Failed to reload " + file + ", keeping the old values: " + e);
+                }
+            }, debounceMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Reads the file and updates the values now, on the calling thread.
+     * Listeners are notified on the calling thread too, after the values are updated.
+     * @throws IOException If the file could not be read. The values are not changed then.
+     */
+    public void reload() throws IOException {
+        synchronized(reloadLock){
+            Properties loaded = new Properties();
+            try(InputStream in = Files.newInputStream(file)){
+                loaded.load(in);
+            }
+
+            ArrayList<String[]> changes = new ArrayList<>();
+            synchronized(this){
+                HashMap<Object, Object> values = new HashMap<>();
+                for(String key : loaded.stringPropertyNames()){
+                    String newValue = loaded.getProperty(key);
+                    values.put(key, newValue);
+                    Object oldValue = get(key);
+                    if(!newValue.equals(oldValue))
+                        changes.add(new String[]{key, oldValue instanceof String ? (String)oldValue : null, newValue});
+                }
+                for(Map.Entry<Object, Object> entry : entrySet()){
+                    Object key = entry.getKey();
+                    if(!(key instanceof String)) {
+                        // Not from the file, so it is kept
+                        values.put(key, entry.getValue());
+                    }else if(!values.containsKey(key)) {
+                        Object oldValue = entry.getValue();
+                        changes.add(new String[]{(String)key, oldValue instanceof String ? (String)oldValue : null, null});
+                    }
+                }
+                // getProperty() takes the lock as well, so no reader sees a mix of the old and new values
+                if(!changes.isEmpty()) {
+                    clear();
+                    putAll(values);
+                }
+            }
+
+            if(changes.isEmpty()) return;
+            for(String[] change : changes)
+                notifyListeners(change[0], change[1], change[2]);
+            for(Runnable listener : reloadListeners){
+                try{
+                    listener.run();
+                }catch(RuntimeException e){
+                    CommonLibrary.logger.severe("Reload listener of " + file + " threw: " + e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Synchronized, as the values are replaced while holding the lock on reload.
+     * Properties only locks its getters up to Java 8.
+     */
+    @Override
+    public synchronized String getProperty(String key){
+        return super.getProperty(key);
+    }
+
+    @Override
+    public synchronized String getProperty(String key, String defaultValue){
+        return super.getProperty(key, defaultValue);
+    }
+
+    private void notifyListeners(String key, String oldValue, String newValue){
+        CopyOnWriteArrayList<ChangeListener> forKey = keyListeners.get(key);
+        if(forKey != null) {
+            for(ChangeListener listener : forKey)
+                notifyListener(listener, key, oldValue, newValue);
+        }
+        for(ChangeListener listener : listeners)
+            notifyListener(listener, key, oldValue, newValue);
+    }
+
+    private void notifyListener(ChangeListener listener, String key, String oldValue, String newValue){
+        try{
+            listener.changed(key, oldValue, newValue);
+        }catch(RuntimeException e){
+            CommonLibrary.logger.severe("Change listener for " + key + " in " + file + " threw: " + e);
+        }
+    }
+
+    /**
+     * Adds a listener called when the value of the key changes on reload.
+     * @param key The property key
+     * @param listener The listener
+     */
+    public void addListener(String key, ChangeListener listener){
+        Objects.requireNonNull(listener);
+        keyListeners.computeIfAbsent(key, k -> new CopyOnWriteArrayList<>()).add(listener);
+    }
+
+    /**
+     * Removes a listener added with addListener(key, listener).
+     * @param key The property key
+     * @param listener The listener
+     * @return Whether the listener was found
+     */
+    public boolean removeListener(String key, ChangeListener listener){
+        CopyOnWriteArrayList<ChangeListener> forKey = keyListeners.get(key);
+        return forKey != null && forKey.remove(listener);
+    }
+
+    /**
+     * Adds a listener called when the value of any key changes on reload.
+     * @param listener The listener
+     */
+    public void addListener(ChangeListener listener){
+        listeners.add(Objects.requireNonNull(listener));
+    }
+
+    /**
+     * Removes a listener added with addListener(listener).
+     * @param listener The listener
+     * @return Whether the listener was found
+     */
+    public boolean removeListener(ChangeListener listener){
+        return listeners.remove(listener);
+    }
+
+    /**
+     * Adds a listener called once after every reload that changed at least one value,
+     * after the listeners of the changed keys.
+     * @param listener The listener
+     */
+    public void addReloadListener(Runnable listener){
+        reloadListeners.add(Objects.requireNonNull(listener));
+    }
+
+    /**
+     * Removes a listener added with addReloadListener(listener).
+     * @param listener The listener
+     * @return Whether the listener was found
+     */
+    public boolean removeReloadListener(Runnable listener){
+        return reloadListeners.remove(listener);
+    }
+}
@@ -0,0 +1,57 @@
+package org.tyoda.wurmunlimited.mods.CommonLibrary;
+
+/**
+ * A deterministic RandomSource using the same linear congruential generator
+ * as java.util.Random, but with a plain field for its seed instead of an
+ * AtomicLong. Not thread safe, use split() to get a source for another thread.
+ */
+final class SeededRandomSource implements RandomSource {
+    private static final long multiplier = 0x5DEECE66DL;
+    private static final long addend = 0xBL;
+    private static final long mask = (1L << 48) - 1;
+
+    private long seed;
+
+    SeededRandomSource(long seed){
+        this.seed = (seed ^ multiplier) & mask;
+    }
+
+    private int next(int bits){
+        seed = (seed * multiplier + addend) & mask;
+        return (int)(seed >>> (48 - bits));
+    }
+
+    @Override
+    public int nextInt(int bound){
+        if(bound <= 0) {
+            throw new IllegalArgumentException("bound must be positive");
+        }
+        int r = next(31);
+        int m = bound - 1;
+        if((bound & m) == 0) {
+            return (int)((bound * (long)r) >> 31);
+        }
+        for(int u = r; u - (r = u % bound) + m < 0; u = next(31));
+        return r;
+    }
+
+    @Override
+    public float nextFloat(){
+        return next(24) / ((float)(1 << 24));
+    }
+
+    @Override
+    public double nextDouble(){
+        return (((long)next(26) << 27) + next(27)) * 0x1.0p-53;
+    }
+
+    @Override
+    public long nextLong(){
+        return ((long)next(32) << 32) + next(32);
+    }
+
+    @Override
+    public RandomSource split(){
+        return new SeededRandomSource(nextLong());
+    }
+}
@@ -1,6 +1,9 @@
 package org.tyoda.wurmunlimited.mods.CommonLibrary;
 
+import java.util.Map;
 import java.util.Properties;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 public class SimpleProperties extends Properties {
     /**
@@ -8,6 +11,17 @@ public class SimpleProperties extends Properties {
      * is not set manually
      */
     private String defaultDelimiter = ",";
+    /**
+     * The snapshot of the current values, or null if it
+     * has to be made again because something changed
+     */
+    private transient volatile PropertiesSnapshot snapshot;
+    /*
+     * Shared with PropertiesSnapshot, which counts its lookups the same way
+     */
+    static final MetricsRegistry.Counter lookups = CommonLibrary.metrics.counter("properties.lookups");
+    static final MetricsRegistry.Counter misses = CommonLibrary.metrics.counter("properties.misses");
+    static final MetricsRegistry.Counter parseFailures = CommonLibrary.metrics.counter("properties.parseFailures");
 
     /**
      * Initializes a SimpleProperties with the values in the
@@ -29,8 +43,9 @@ public class SimpleProperties extends Properties {
      * Sets the default delimiter used by this SimpleProperties object
      * @param _defaultDelimiter The new default delimiter
      */
-    public void setDefaultDelimiter(String _defaultDelimiter){
+    public synchronized void setDefaultDelimiter(String _defaultDelimiter){
         defaultDelimiter = _defaultDelimiter;
+        snapshot = null;
     }
 
     /**
@@ -40,6 +55,110 @@ public class SimpleProperties extends Properties {
         return defaultDelimiter;
     }
 
+    /**
+     * Returns an immutable snapshot of the current values. Its getters take no
+     * locks and parse every value only once per type. The snapshot is made again
+     * the first time this is called after the properties change, so it should
+     * be fetched with this method every time instead of being kept.
+     * Changes to the default properties supplied in the constructor are not noticed.
+     */
+    public PropertiesSnapshot snapshot(){
+        PropertiesSnapshot current = snapshot;
+        if(current != null) return current;
+        synchronized(this){
+            if(snapshot == null) snapshot = new PropertiesSnapshot(this, defaultDelimiter);
+            return snapshot;
+        }
+    }
+
+    @Override
+    public synchronized Object put(Object key, Object value){
+        Object previous = super.put(key, value);
+        snapshot = null;
+        return previous;
+    }
+
+    @Override
+    public synchronized Object remove(Object key){
+        Object previous = super.remove(key);
+        snapshot = null;
+        return previous;
+    }
+
+    @Override
+    public synchronized boolean remove(Object key, Object value){
+        boolean removed = super.remove(key, value);
+        snapshot = null;
+        return removed;
+    }
+
+    @Override
+    public synchronized void putAll(Map<?, ?> t){
+        super.putAll(t);
+        snapshot = null;
+    }
+
+    @Override
+    public synchronized void clear(){
+        super.clear();
+        snapshot = null;
+    }
+
+    @Override
+    public synchronized Object putIfAbsent(Object key, Object value){
+        Object previous = super.putIfAbsent(key, value);
+        snapshot = null;
+        return previous;
+    }
+
+    @Override
+    public synchronized Object replace(Object key, Object value){
+        Object previous = super.replace(key, value);
+        snapshot = null;
+        return previous;
+    }
+
+    @Override
+    public synchronized boolean replace(Object key, Object oldValue, Object newValue){
+        boolean replaced = super.replace(key, oldValue, newValue);
+        snapshot = null;
+        return replaced;
+    }
+
+    @Override
+    public synchronized void replaceAll(BiFunction<? super Object, ? super Object, ?> function){
+        super.replaceAll(function);
+        snapshot = null;
+    }
+
+    @Override
+    public synchronized Object compute(Object key, BiFunction<? super Object, ? super Object, ?> remappingFunction){
+        Object value = super.compute(key, remappingFunction);
+        snapshot = null;
+        return value;
+    }
+
+    @Override
+    public synchronized Object computeIfAbsent(Object key, Function<? super Object, ?> mappingFunction){
+        Object value = super.computeIfAbsent(key, mappingFunction);
+        snapshot = null;
+        return value;
+    }
+
+    @Override
+    public synchronized Object computeIfPresent(Object key, BiFunction<? super Object, ? super Object, ?> remappingFunction){
+        Object value = super.computeIfPresent(key, remappingFunction);
+        snapshot = null;
+        return value;
+    }
+
+    @Override
+    public synchronized Object merge(Object key, Object value, BiFunction<? super Object, ? super Object, ?> remappingFunction){
+        Object merged = super.merge(key, value, remappingFunction);
+        snapshot = null;
+        return merged;
+    }
+
     /**
      * Gets the value associated with the key, or the default value
      * if key is not present in the properties list.
@@ -48,7 +167,7 @@ public class SimpleProperties extends Properties {
      * @return The value in properties if it exists or the default value
      */
     public boolean getBoolean(String key, boolean def){
-        String value = getProperty(key);
+        String value = lookup(key);
         return value == null ? def : Boolean.parseBoolean(value);
     }
 
@@ -60,8 +179,13 @@ public class SimpleProperties extends Properties {
      * @return The value in properties if it exists or the default value
      */
     public byte getByte(String key, byte def){
-        String value = getProperty(key);
-        return value == null ? def : Byte.parseByte(value);
+        String value = lookup(key);
+        try{
+            return value == null ? def : Byte.parseByte(value);
+        }catch(NumberFormatException e){
+            parseFailures.increment();
+            throw e;
+        }
     }
 
     /**
@@ -72,8 +196,13 @@ public class SimpleProperties extends Properties {
      * @return The value in properties if it exists or the default value
      */
     public short getShort(String key, short def){
-        String value = getProperty(key);
-        return value == null ? def : Short.parseShort(value);
+        String value = lookup(key);
+        try{
+            return value == null ? def : Short.parseShort(value);
+        }catch(NumberFormatException e){
+            parseFailures.increment();
+            throw e;
+        }
     }
 
     /**
@@ -84,8 +213,13 @@ public class SimpleProperties extends Properties {
      * @return The value in properties if it exists or the default value
      */
     public int getInt(String key, int def){
-        String value = getProperty(key);
-        return value == null ? def : Integer.parseInt(value);
+        String value = lookup(key);
+        try{
+            return value == null ? def : Integer.parseInt(value);
+        }catch(NumberFormatException e){
+            parseFailures.increment();
+            throw e;
+        }
     }
 
     /**
@@ -96,8 +230,13 @@ public class SimpleProperties extends Properties {
      * @return The value in properties if it exists or the default value
      */
     public float getFloat(String key, float def){
-        String value = getProperty(key);
-        return value == null ? def : Float.parseFloat(value);
+        String value = lookup(key);
+        try{
+            return value == null ? def : Float.parseFloat(value);
+        }catch(NumberFormatException e){
+            parseFailures.increment();
+            throw e;
+        }
     }
 
     /**
@@ -108,8 +247,13 @@ public class SimpleProperties extends Properties {
      * @return The value in properties if it exists or the default value
      */
     public long getLong(String key, long def){
-        String value = getProperty(key);
-        return value == null ? def : Long.parseLong(value);
+        String value = lookup(key);
+        try{
+            return value == null ? def : Long.parseLong(value);
+        }catch(NumberFormatException e){
+            parseFailures.increment();
+            throw e;
+        }
     }
 
     /**
@@ -120,7 +264,7 @@ public class SimpleProperties extends Properties {
      * @return The value in properties if it exists or the default value
      */
     public String getString(String key, String def){
-        String value = getProperty(key);
+        String value = lookup(key);
         return value == null ? def : value;
     }
 
@@ -140,23 +284,18 @@ public class SimpleProperties extends Properties {
     /**
      * Gets the value associated with the key, or the default value
      * if key is not present in the properties list. The value must be
-     * a String containing byte values delimited by the supplied delimiter
+     * a String containing byte values delimited by the supplied delimiter.
+     * Inclusive ranges such as 100-120 are expanded to every value in them,
+     * unless the delimiter is a regular expression.
      * @param key The property key
      * @param def The default value
-     * @param delimiter The string the values are separated by
+     * @param delimiter The string the values are separated by. It is a regular expression
+     *                  if it contains any of \^$.|?*+()[]{}, like it used to be.
      * @return An array created from the value in properties if it exists or the default value
      */
     public byte[] getByteArray(String key, byte[] def, String delimiter){
-        String value = getProperty(key);
-        if(value == null) return def;
-
-        String[] strings = value.split(delimiter);
-        byte[] arr = new byte[strings.length];
-        int i = 0;
-        for(String s : strings)
-            arr[i++] = Byte.parseByte(s);
-
-        return arr;
+        String value = lookup(key);
+        return value == null ? def : parseByteArray(value, delimiter);
     }
 
     /**
@@ -175,23 +314,18 @@ public class SimpleProperties extends Properties {
     /**
      * Gets the value associated with the key, or the default value
      * if key is not present in the properties list. The value must be
-     * a String containing short values delimited by the supplied delimiter
+     * a String containing short values delimited by the supplied delimiter.
+     * Inclusive ranges such as 100-120 are expanded to every value in them,
+     * unless the delimiter is a regular expression.
      * @param key The property key
      * @param def The default value
-     * @param delimiter The string the values are separated by
+     * @param delimiter The string the values are separated by. It is a regular expression
+     *                  if it contains any of \^$.|?*+()[]{}, like it used to be.
      * @return An array created from the value in properties if it exists or the default value
      */
     public short[] getShortArray(String key, short[] def, String delimiter){
-        String value = getProperty(key);
-        if(value == null) return def;
-
-        String[] strings = value.split(delimiter);
-        short[] arr = new short[strings.length];
-        int i = 0;
-        for(String s : strings)
-            arr[i++] = Short.parseShort(s);
-
-        return arr;
+        String value = lookup(key);
+        return value == null ? def : parseShortArray(value, delimiter);
     }
 
     /**
@@ -210,23 +344,18 @@ public class SimpleProperties extends Properties {
     /**
      * Gets the value associated with the key, or the default value
      * if key is not present in the properties list. The value must be
-     * a String containing integers delimited by the supplied delimiter
+     * a String containing integers delimited by the supplied delimiter.
+     * Inclusive ranges such as 100-120 are expanded to every value in them,
+     * unless the delimiter is a regular expression.
      * @param key The property key
      * @param def The default value
-     * @param delimiter The string the values are separated by
+     * @param delimiter The string the values are separated by. It is a regular expression
+     *                  if it contains any of \^$.|?*+()[]{}, like it used to be.
      * @return An array created from the value in properties if it exists or the default value
      */
     public int[] getIntArray(String key, int[] def, String delimiter){
-        String value = getProperty(key);
-        if(value == null) return def;
-
-        String[] strings = value.split(delimiter);
-        int[] arr = new int[strings.length];
-        int i = 0;
-        for(String s : strings)
-            arr[i++] = Integer.parseInt(s);
-
-        return arr;
+        String value = lookup(key);
+        return value == null ? def : parseIntArray(value, delimiter);
     }
 
     /**
@@ -245,23 +374,18 @@ public class SimpleProperties extends Properties {
     /**
      * Gets the value associated with the key, or the default value
      * if key is not present in the properties list. The value must be
-     * a String containing long values delimited by the supplied delimiter
+     * a String containing long values delimited by the supplied delimiter.
+     * Inclusive ranges such as 100-120 are expanded to every value in them,
+     * unless the delimiter is a regular expression.
      * @param key The property key
      * @param def The default value
-     * @param delimiter The string the values are separated by
+     * @param delimiter The string the values are separated by. It is a regular expression
+     *                  if it contains any of \^$.|?*+()[]{}, like it used to be.
      * @return An array created from the value in properties if it exists or the default value
      */
     public long[] getLongArray(String key, long[] def, String delimiter){
-        String value = getProperty(key);
-        if(value == null) return def;
-
-        String[] strings = value.split(delimiter);
-        long[] arr = new long[strings.length];
-        int i = 0;
-        for(String s : strings)
-            arr[i++] = Long.parseLong(s);
-
-        return arr;
+        String value = lookup(key);
+        return value == null ? def : parseLongArray(value, delimiter);
     }
 
     /**
@@ -283,20 +407,13 @@ public class SimpleProperties extends Properties {
      * a String containing float values delimited by the supplied delimiter
      * @param key The property key
      * @param def The default value
-     * @param delimiter The string the values are separated by
+     * @param delimiter The string the values are separated by. It is a regular expression
+     *                  if it contains any of \^$.|?*+()[]{}, like it used to be.
      * @return An array created from the value in properties if it exists or the default value
      */
     public float[] getFloatArray(String key, float[] def, String delimiter){
-        String value = getProperty(key);
-        if(value == null) return def;
-
-        String[] strings = value.split(delimiter);
-        float[] arr = new float[strings.length];
-        int i = 0;
-        for(String s : strings)
-            arr[i++] = Float.parseFloat(s);
-
-        return arr;
+        String value = lookup(key);
+        return value == null ? def : parseFloatArray(value, delimiter);
     }
 
     /**
@@ -315,23 +432,16 @@ public class SimpleProperties extends Properties {
     /**
      * Gets the value associated with the key, or the default value
      * if key is not present in the properties list. The value must be
-     * a String containing integers delimited by the supplied delimiter
+     * a String containing integers delimited by the supplied delimiter.
      * @param key The property key
      * @param def The default value
-     * @param delimiter The string the values are separated by
+     * @param delimiter The string the values are separated by. It is a regular expression
+     *                  if it contains any of \^$.|?*+()[]{}, like it used to be.
      * @return An array created from the value in properties if it exists or the default value
      */
     public boolean[] getBooleanArray(String key, boolean[] def, String delimiter){
-        String value = getProperty(key);
-        if(value == null) return def;
-
-        String[] strings = value.split(delimiter);
-        boolean[] arr = new boolean[strings.length];
-        int i = 0;
-        for(String s : strings)
-            arr[i++] = Boolean.parseBoolean(s);
-
-        return arr;
+        String value = lookup(key);
+        return value == null ? def : parseBooleanArray(value, delimiter);
     }
 
     /**
@@ -353,40 +463,80 @@ public class SimpleProperties extends Properties {
      * a String containing Strings delimited by the supplied delimiter
      * @param key The property key
      * @param def The default value
-     * @param delimiter The string the values are separated by
+     * @param delimiter The string the values are separated by. It is a regular expression
+     *                  if it contains any of \^$.|?*+()[]{}, like it used to be.
      * @return An array created from the value in properties if it exists or the default value
      */
     public String[] getStringArray(String key, String[] def, String delimiter){
-        String value = getProperty(key);
-        if(value == null) return def;
-
-        return value.split(delimiter);
+        String value = lookup(key);
+        return value == null ? def : parseStringArray(value, delimiter);
     }
-}
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
 
+    /**
+     * Gets the value of the key, counting the lookup in CommonLibrary.metrics
+     */
+    private String lookup(String key){
+        String value = getProperty(key);
+        lookups.increment();
+        if(value == null) misses.increment();
+        return value;
+    }
 
+    static byte[] parseByteArray(String value, String delimiter){
+        try{
+            return DelimitedParser.parseBytes(value, delimiter);
+        }catch(IllegalArgumentException e){
+            parseFailures.increment();
+            throw e;
+        }
+    }
 
+    static short[] parseShortArray(String value, String delimiter){
+        try{
+            return DelimitedParser.parseShorts(value, delimiter);
+        }catch(IllegalArgumentException e){
+            parseFailures.increment();
+            throw e;
+        }
+    }
 
+    static int[] parseIntArray(String value, String delimiter){
+        try{
+            return DelimitedParser.parseInts(value, delimiter);
+        }catch(IllegalArgumentException e){
+            parseFailures.increment();
+            throw e;
+        }
+    }
 
+    static long[] parseLongArray(String value, String delimiter){
+        try{
+            return DelimitedParser.parseLongs(value, delimiter);
+        }catch(IllegalArgumentException e){
+            parseFailures.increment();
+            throw e;
+        }
+    }
 
+    static float[] parseFloatArray(String value, String delimiter){
+        try{
+            return DelimitedParser.parseFloats(value, delimiter);
+        }catch(IllegalArgumentException e){
+            parseFailures.increment();
+            throw e;
+        }
+    }
 
+    static boolean[] parseBooleanArray(String value, String delimiter){
+        try{
+            return DelimitedParser.parseBooleans(value, delimiter);
+        }catch(IllegalArgumentException e){
+            parseFailures.increment();
+            throw e;
+        }
+    }
 
+    static String[] parseStringArray(String value, String delimiter){
+        return DelimitedParser.parseStrings(value, delimiter);
+    }
+}
@@ -0,0 +1,363 @@
+package org.tyoda.wurmunlimited.mods.CommonLibrary;
+
+import com.wurmonline.server.zones.Zones;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bitmap of the tiles WorldPosition2D.getRandomPos() would accept, so a random
+ * position can be picked with a single draw instead of by trial and error.
+ * The map is split into regions of 64 by 64 tiles. Every region is 64 longs, one per row,
+ * and a running count of the eligible tiles over the regions finds the region of
+ * the n-th eligible tile with a binary search.
+ * <p>
+ * The index does not notice changes to the terrain, altars or villages by itself.
+ * Mark the changed tiles with invalidate(), then call refresh() to check the regions
+ * containing them again. Sampling takes no locks: refresh() builds new arrays for the
+ * changed regions and swaps them in all at once, so samplers see the old or the new index.
+ */
+public final class SpawnIndex {
+    public static final int regionShift = 6;
+    public static final int regionSize = 1 << regionShift;
+    /**
+     * Regions rebuilt per task when building in parallel
+     */
+    private static final int regionsPerTask = 16;
+    /**
+     * Shared by every region without eligible tiles. Never modified.
+     */
+    private static final long[] emptyRegion = new long[regionSize];
+
+    /**
+     * An immutable version of the index
+     */
+    private static final class Directory {
+        /**
+         * The rows of every region, region y major
+         */
+        final long[][] regions;
+        /**
+         * cumulative[i] is the number of eligible tiles in regions 0 to i
+         */
+        final int[] cumulative;
+
+        Directory(long[][] regions){
+            this.regions = regions;
+            cumulative = new int[regions.length];
+            int total = 0;
+            for(int i = 0; i < regions.length; ++i){
+                total += count(regions[i]);
+                cumulative[i] = total;
+            }
+        }
+
+        int total(){
+            return cumulative.length == 0 ? 0 : cumulative[cumulative.length - 1];
+        }
+    }
+
+    private final int padding;
+    private final int regionsX;
+    private final int regionsY;
+    /**
+     * The range of tiles random positions may be on, inclusive
+     */
+    private final int minTileX, maxTileX, minTileY, maxTileY;
+    private final ForkJoinPool pool;
+    private volatile Directory directory;
+    /**
+     * One bit per region that has to be checked again
+     */
+    private final AtomicLongArray dirty;
+
+    private SpawnIndex(int padding, ForkJoinPool pool){
+        if(padding < 0) {
+            throw new IllegalArgumentException("padding must not be negative.");
+        }
+        this.padding = padding;
+        this.pool = pool;
+        int tilesX = Zones.worldTileSizeX;
+        int tilesY = Zones.worldTileSizeY;
+        regionsX = (tilesX + regionSize - 1) >> regionShift;
+        regionsY = (tilesY + regionSize - 1) >> regionShift;
+        // Only tiles that lie entirely within the padding, and whose neighbours are all on the map
+        minTileX = Math.max(1, (padding + 3) >> 2);
+        minTileY = Math.max(1, (padding + 3) >> 2);
+        maxTileX = Math.min(tilesX - 2, ((int)Zones.worldMeterSizeX - padding - 4) >> 2);
+        maxTileY = Math.min(tilesY - 2, ((int)Zones.worldMeterSizeY - padding - 4) >> 2);
+        dirty = new AtomicLongArray((regionsX * regionsY + 63) >> 6);
+    }
+
+    /**
+     * Checks every tile of the map and builds the index, using the common ForkJoinPool.
+     * This reads every tile of the surface mesh, so it should be done when the server
+     * has loaded, away from the server thread.
+     * @param padding The minimum distance of the positions from the map's borders, in meters.
+     * @return The index
+     */
+    public static SpawnIndex build(int padding){
+        return build(padding, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Checks every tile of the map and builds the index.
+     * @param padding The minimum distance of the positions from the map's borders, in meters.
+     * @param pool The pool the regions are checked in, also used by refresh()
+     * @return The index
+     */
+    public static SpawnIndex build(int padding, ForkJoinPool pool){
+        SpawnIndex index = new SpawnIndex(padding, pool);
+        long[][] regions = new long[index.regionsX * index.regionsY][];
+        int[] all = new int[regions.length];
+        for(int i = 0; i < all.length; ++i)
+            all[i] = i;
+        pool.invoke(index.new RegionTask(regions, all, 0, all.length));
+        index.directory = new Directory(regions);
+        return index;
+    }
+
+    /**
+     * Checks a range of regions
+     */
+    private final class RegionTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final long[][] regions;
+        private final int[] indices;
+        private final int from, to;
+
+        RegionTask(long[][] regions, int[] indices, int from, int to){
+            this.regions = regions;
+            this.indices = indices;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute(){
+            if(to - from <= regionsPerTask){
+                for(int i = from; i < to; ++i)
+                    regions[indices[i]] = buildRegion(indices[i]);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new RegionTask(regions, indices, from, middle), new RegionTask(regions, indices, middle, to));
+        }
+    }
+
+    /**
+     * Checks every tile of the region. The water and lava of every tile is looked up once
+     * and shared between its neighbours, instead of nine times as checkTile() does.
+     */
+    private long[] buildRegion(int region){
+        int startX = Math.max(minTileX, (region % regionsX) << regionShift);
+        int startY = Math.max(minTileY, (region / regionsX) << regionShift);
+        int endX = Math.min(maxTileX, (((region % regionsX) + 1) << regionShift) - 1);
+        int endY = Math.min(maxTileY, (((region / regionsX) + 1) << regionShift) - 1);
+        if(startX > endX || startY > endY) return emptyRegion;
+
+        // Water and lava of the tiles and the ring of tiles around them
+        int width = endX - startX + 3;
+        int height = endY - startY + 3;
+        boolean[] wet = new boolean[width * height];
+        for(int y = 0; y < height; ++y)
+            for(int x = 0; x < width; ++x)
+                wet[y * width + x] = WorldPosition2D.isWaterOrLava(startX - 1 + x, startY - 1 + y);
+
+        long[] rows = new long[regionSize];
+        boolean any = false;
+        for(int tileY = startY; tileY <= endY; ++tileY){
+            long row = 0;
+            for(int tileX = startX; tileX <= endX; ++tileX){
+                if(isDry(wet, width, tileX - startX + 1, tileY - startY + 1)
+                        && WorldPosition2D.checkStructures(tileX, tileY) == WorldPosition2D.tileEligible)
+                    row |= 1L << (tileX & (regionSize - 1));
+            }
+            rows[tileY & (regionSize - 1)] = row;
+            any |= row != 0;
+        }
+        return any ? rows : emptyRegion;
+    }
+
+    private static boolean isDry(boolean[] wet, int width, int x, int y){
+        for(int dy = -1; dy <= 1; ++dy)
+            for(int dx = -1; dx <= 1; ++dx)
+                if(wet[(y + dy) * width + x + dx]) return false;
+        return true;
+    }
+
+    private static int count(long[] rows){
+        int count = 0;
+        for(long row : rows)
+            count += Long.bitCount(row);
+        return count;
+    }
+
+    /**
+     * Returns the minimum distance of the positions from the map's borders, in meters.
+     */
+    public int getPadding(){
+        return padding;
+    }
+
+    /**
+     * Returns the number of eligible tiles
+     */
+    public int getEligibleCount(){
+        return directory.total();
+    }
+
+    /**
+     * Returns whether the index holds the tile as eligible.
+     * @param tileX The x value of the tile position.
+     * @param tileY The y value of the tile position.
+     */
+    public boolean isEligible(int tileX, int tileY){
+        if(tileX < minTileX || tileX > maxTileX || tileY < minTileY || tileY > maxTileY) return false;
+        long[] rows = directory.regions[(tileY >> regionShift) * regionsX + (tileX >> regionShift)];
+        return (rows[tileY & (regionSize - 1)] >>> (tileX & (regionSize - 1)) & 1) != 0;
+    }
+
+    /**
+     * Returns a random position on an eligible tile, every eligible tile being equally likely.
+     * The position is on a random whole meter within the tile, like the ones of WorldPosition2D.getRandomPos().
+     * @param random The RandomSource to roll the position with.
+     * @return A random position, or null if no tile is eligible.
+     */
+    public WorldPosition2D getRandomPos(RandomSource random){
+        long tile = getRandomTile(random);
+        if(tile < 0) return null;
+        return new WorldPosition2D(PackedPosition.tileToMeter(PackedPosition.tileX(tile)) + random.nextInt(4),
+                PackedPosition.tileToMeter(PackedPosition.tileY(tile)) + random.nextInt(4));
+    }
+
+    /**
+     * Appends random eligible tiles to the buffer, every eligible tile being equally likely
+     * each time, so a tile may be picked more than once.
+     * @param count The number of tiles to append
+     * @param random The RandomSource to roll the tiles with.
+     * @param tiles The buffer the packed tile positions are appended to
+     * @return The number of tiles appended, zero if no tile is eligible.
+     */
+    public int getRandomTiles(int count, RandomSource random, PositionBuffer tiles){
+        if(count < 0) {
+            throw new IllegalArgumentException("count must not be negative.");
+        }
+        if(directory.total() == 0) return 0;
+        tiles.ensureCapacity(tiles.size() + count);
+        for(int i = 0; i < count; ++i)
+            tiles.add(getRandomTile(random));
+        return count;
+    }
+
+    /**
+     * Returns a random eligible tile, every eligible tile being equally likely.
+     * @param random The RandomSource to roll the tile with.
+     * @return The tile packed with PackedPosition, or -1 if no tile is eligible.
+     */
+    public long getRandomTile(RandomSource random){
+        Directory current = directory;
+        int total = current.total();
+        if(total == 0) return -1;
+        int n = random.nextInt(total);
+
+        // The first region whose running count is above n
+        int low = 0, high = current.cumulative.length - 1;
+        while(low < high){
+            int middle = (low + high) >>> 1;
+            if(current.cumulative[middle] > n) high = middle;
+            else low = middle + 1;
+        }
+        int region = low;
+        if(region > 0) n -= current.cumulative[region - 1];
+
+        long[] rows = current.regions[region];
+        int row = 0;
+        while(true){
+            int count = Long.bitCount(rows[row]);
+            if(n < count) break;
+            n -= count;
+            ++row;
+        }
+        long bits = rows[row];
+        for(int i = 0; i < n; ++i)
+            bits &= bits - 1;
+        int tileX = ((region % regionsX) << regionShift) + Long.numberOfTrailingZeros(bits);
+        int tileY = ((region / regionsX) << regionShift) + row;
+        return PackedPosition.pack(tileX, tileY);
+    }
+
+    /**
+     * Marks a tile as changed. Its neighbours are marked too, as whether they are
+     * eligible depends on the water and lava around them.
+     * @param tileX The x value of the tile position.
+     * @param tileY The y value of the tile position.
+     */
+    public void invalidate(int tileX, int tileY){
+        invalidate(tileX - 1, tileY - 1, tileX + 1, tileY + 1);
+    }
+
+    /**
+     * Marks an area as changed, like the perimeter of a new or changed village.
+     * @param minTileX The lowest x value of the area, inclusive.
+     * @param minTileY The lowest y value of the area, inclusive.
+     * @param maxTileX The highest x value of the area, inclusive.
+     * @param maxTileY The highest y value of the area, inclusive.
+     */
+    public void invalidate(int minTileX, int minTileY, int maxTileX, int maxTileY){
+        int minRegionX = Math.max(0, minTileX >> regionShift);
+        int minRegionY = Math.max(0, minTileY >> regionShift);
+        int maxRegionX = Math.min(regionsX - 1, maxTileX >> regionShift);
+        int maxRegionY = Math.min(regionsY - 1, maxTileY >> regionShift);
+        for(int regionY = minRegionY; regionY <= maxRegionY; ++regionY){
+            for(int regionX = minRegionX; regionX <= maxRegionX; ++regionX){
+                int region = regionY * regionsX + regionX;
+                long bit = 1L << (region & 63);
+                long word;
+                do{
+                    word = dirty.get(region >> 6);
+                }while((word & bit) == 0 && !dirty.compareAndSet(region >> 6, word, word | bit));
+            }
+        }
+    }
+
+    /**
+     * Marks the whole map as changed.
+     */
+    public void invalidateAll(){
+        invalidate(0, 0, Zones.worldTileSizeX - 1, Zones.worldTileSizeY - 1);
+    }
+
+    /**
+     * Returns whether any region is marked as changed
+     */
+    public boolean isDirty(){
+        for(int i = 0; i < dirty.length(); ++i)
+            if(dirty.get(i) != 0) return true;
+        return false;
+    }
+
+    /**
+     * Checks the regions marked as changed again, and swaps the new index in.
+     * Regions marked while this runs are left for the next call.
+     * @return The number of regions checked
+     */
+    public synchronized int refresh(){
+        int[] changed = new int[regionsX * regionsY];
+        int count = 0;
+        for(int i = 0; i < dirty.length(); ++i){
+            long word = dirty.getAndSet(i, 0);
+            while(word != 0){
+                changed[count++] = (i << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+            }
+        }
+        if(count == 0) return 0;
+
+        long[][] regions = directory.regions.clone();
+        pool.invoke(new RegionTask(regions, changed, 0, count));
+        directory = new Directory(regions);
+        return count;
+    }
+}
@@ -0,0 +1,48 @@
+package org.tyoda.wurmunlimited.mods.CommonLibrary;
+
+import java.util.SplittableRandom;
+
+/**
+ * A RandomSource backed by a SplittableRandom. Not thread safe,
+ * use split() to get a source for another thread.
+ */
+final class SplittableRandomSource implements RandomSource {
+    private final SplittableRandom random;
+
+    SplittableRandomSource(){
+        this(new SplittableRandom());
+    }
+
+    SplittableRandomSource(long seed){
+        this(new SplittableRandom(seed));
+    }
+
+    private SplittableRandomSource(SplittableRandom random){
+        this.random = random;
+    }
+
+    @Override
+    public int nextInt(int bound){
+        return random.nextInt(bound);
+    }
+
+    @Override
+    public float nextFloat(){
+        return (random.nextInt() >>> 8) * 0x1.0p-24f;
+    }
+
+    @Override
+    public double nextDouble(){
+        return random.nextDouble();
+    }
+
+    @Override
+    public long nextLong(){
+        return random.nextLong();
+    }
+
+    @Override
+    public RandomSource split(){
+        return new SplittableRandomSource(random.split());
+    }
+}
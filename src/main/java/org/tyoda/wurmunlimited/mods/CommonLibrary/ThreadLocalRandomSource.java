@@ -0,0 +1,40 @@
+package org.tyoda.wurmunlimited.mods.CommonLibrary;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A RandomSource that rolls with the ThreadLocalRandom of the calling thread.
+ */
+final class ThreadLocalRandomSource implements RandomSource {
+    static final ThreadLocalRandomSource INSTANCE = new ThreadLocalRandomSource();
+
+    private ThreadLocalRandomSource(){}
+
+    @Override
+    public int nextInt(int bound){
+        return ThreadLocalRandom.current().nextInt(bound);
+    }
+
+    @Override
+    public float nextFloat(){
+        return ThreadLocalRandom.current().nextFloat();
+    }
+
+    @Override
+    public double nextDouble(){
+        return ThreadLocalRandom.current().nextDouble();
+    }
+
+    @Override
+    public long nextLong(){
+        return ThreadLocalRandom.current().nextLong();
+    }
+
+    /**
+     * Returns this, since every thread already has its own generator.
+     */
+    @Override
+    public RandomSource split(){
+        return this;
+    }
+}
@@ -0,0 +1,16 @@
+package org.tyoda.wurmunlimited.mods.CommonLibrary;
+
+/**
+ * A check a tile has to pass for a random position to be put on it.
+ * See TileFilterPipeline for adding one to the checks of WorldPosition2D.getRandomPos().
+ */
+@FunctionalInterface
+public interface TileFilter {
+    /**
+     * Returns whether a random position may be put on the tile.
+     * Called from several threads at once, so it must be thread safe.
+     * @param tileX The x value of the tile position.
+     * @param tileY The y value of the tile position.
+     */
+    boolean accepts(int tileX, int tileY);
+}
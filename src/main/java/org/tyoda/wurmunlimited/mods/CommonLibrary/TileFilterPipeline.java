@@ -0,0 +1,378 @@
+package org.tyoda.wurmunlimited.mods.CommonLibrary;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The checks a tile has to pass for a random position to be put on it, see WorldPosition2D.tileFilters.
+ * A tile is eligible if every filter accepts it, so the order they run in does not change
+ * which tiles are eligible, only how long it takes to find out. The pipeline keeps track of
+ * how long each filter takes and how often it rejects a tile, and every reorderInterval
+ * checks or so it moves the filters that reject the most tiles for the least time to the front.
+ * <p>
+ * The index of a filter is the order it was added in, and is what check() returns when
+ * it rejects a tile. Indices never change and are never reused, a removed filter keeps its
+ * index, so counts made with the old indices still belong to the same filters.
+ * As the order the filters run in changes, a tile failing several of them
+ * is counted for whichever ran first.
+ */
+public final class TileFilterPipeline {
+    /**
+     * The default of how many checks pass between reorders, on average
+     */
+    public static final int defaultReorderInterval = 4096;
+    /**
+     * One in every this many calls of a filter is timed, as timing takes about as long as a cheap filter
+     */
+    private static final int timingInterval = 16;
+    /**
+     * The weight of the latest measurements in the estimates the order is based on
+     */
+    private static final double smoothing = 0.5;
+
+    /**
+     * The filters in the order they were added in, indexed by their index.
+     * Removed filters stay, so the indices do not change.
+     */
+    private volatile Stage[] stages = new Stage[0];
+    /**
+     * The filters in the order they run in
+     */
+    private volatile Stage[] order = stages;
+    private volatile int reorderInterval = defaultReorderInterval;
+
+    /**
+     * Adds a filter after the others. It is moved forward once it has been measured.
+     * @param name The name of the filter, shown in the failure counts of getRandomPos().
+     * @param filter The filter
+     * @return The index check() returns for the tiles the filter rejects
+     */
+    public synchronized int add(String name, TileFilter filter){
+        return add(name, filter, false);
+    }
+
+    synchronized int add(String name, TileFilter filter, boolean builtIn){
+        if(name == null || filter == null) {
+            throw new IllegalArgumentException("name and filter must not be null.");
+        }
+        if(indexOf(name) >= 0) {
+            throw new IllegalArgumentException("There is already a filter called " + name + ".");
+        }
+        Stage stage = new Stage(name, filter, stages.length, builtIn);
+        Stage[] newStages = Arrays.copyOf(stages, stages.length + 1);
+        newStages[stage.index] = stage;
+        Stage[] newOrder = Arrays.copyOf(order, order.length + 1);
+        newOrder[newOrder.length - 1] = stage;
+        stages = newStages;
+        order = newOrder;
+        return stage.index;
+    }
+
+    /**
+     * Removes a filter added with add(). Its index is not given to another filter,
+     * and the filters added after it keep theirs.
+     * @param name The name of the filter
+     * @return Whether there was a filter with the name
+     */
+    public synchronized boolean remove(String name){
+        int index = indexOf(name);
+        if(index < 0) return false;
+        Stage removed = stages[index];
+        if(removed.builtIn) {
+            throw new IllegalArgumentException("The built in filter " + name + " cannot be removed.");
+        }
+        removed.removed = true;
+        Stage[] newOrder = new Stage[order.length - 1];
+        for(int i = 0, j = 0; i < order.length; ++i){
+            if(order[i] != removed) newOrder[j++] = order[i];
+        }
+        order = newOrder;
+        return true;
+    }
+
+    /**
+     * Returns the index of the filter with the name, or -1 if there is none
+     * @param name The name of the filter
+     */
+    public int indexOf(String name){
+        Stage[] stages = this.stages;
+        for(int i = 0; i < stages.length; ++i){
+            if(!stages[i].removed && stages[i].name.equals(name)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the number of indices given out, including those of removed filters.
+     * Arrays indexed like the filters need this length.
+     */
+    public int size(){
+        return stages.length;
+    }
+
+    /**
+     * Checks whether a random position may be put on the tile.
+     * @param tileX The x value of the tile position.
+     * @param tileY The y value of the tile position.
+     * @return -1 if every filter accepts the tile, otherwise the index of the one that rejected it.
+     */
+    public int check(int tileX, int tileY){
+        return check(tileX, tileY, -1);
+    }
+
+    /**
+     * Checks the tile with every filter but one.
+     * @param skipped The index of the filter to skip, or -1 to skip none
+     */
+    int check(int tileX, int tileY, int skipped){
+        if(ThreadLocalRandom.current().nextInt(reorderInterval) == 0) reorder();
+        for(Stage stage : order){
+            if(stage.index != skipped && !stage.test(tileX, tileY)) return stage.index;
+        }
+        return WorldPosition2D.tileEligible;
+    }
+
+    /**
+     * Sorts the filters by the time they take per tile they reject, using the measurements
+     * since the last reorder mixed with the earlier ones. Filters that have not been
+     * measured yet go first, so they are.
+     */
+    public synchronized void reorder(){
+        Stage[] newOrder = order.clone();
+        for(Stage stage : newOrder)
+            stage.estimate();
+        // Stable, so filters that are as good keep their order
+        Arrays.sort(newOrder, Comparator.comparingDouble(Stage::getRank));
+        order = newOrder;
+    }
+
+    public int getReorderInterval(){
+        return reorderInterval;
+    }
+
+    /**
+     * Sets how many checks pass between reorders, on average.
+     * @param _reorderInterval Checks. Must be positive, the default is 4096.
+     */
+    public void setReorderInterval(int _reorderInterval){
+        if(_reorderInterval <= 0) {
+            throw new IllegalArgumentException("reorderInterval must be positive.");
+        }
+        reorderInterval = _reorderInterval;
+    }
+
+    /**
+     * Returns the filters that were not removed, in the order they were added in
+     */
+    public List<Stage> getStages(){
+        ArrayList<Stage> current = new ArrayList<>();
+        for(Stage stage : stages)
+            if(!stage.removed) current.add(stage);
+        return Collections.unmodifiableList(current);
+    }
+
+    /**
+     * Returns the filters in the order they currently run in
+     */
+    public List<Stage> getOrder(){
+        return Collections.unmodifiableList(Arrays.asList(order));
+    }
+
+    /**
+     * Forgets the measurements of every filter, for example after large changes to the map.
+     */
+    public synchronized void resetStats(){
+        for(Stage stage : order)
+            stage.reset();
+    }
+
+    /**
+     * Returns the counter in CommonLibrary.metrics of the tiles getRandomPos()
+     * had rejected by the filter, named like "randomPos.rejected.Altar"
+     * @param index The index of the filter
+     */
+    MetricsRegistry.Counter getRejectionCounter(int index){
+        return stages[index].rejectionCounter;
+    }
+
+    /**
+     * Formats failure counts indexed like the filters, as "Water/Lava-3  Altar-0  Village-1".
+     * Removed filters are left out, unless they rejected a tile before they were removed.
+     * @param failures The number of tiles each filter rejected. May be shorter than the filters.
+     */
+    String describe(long[] failures){
+        Stage[] stages = this.stages;
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i < stages.length; ++i){
+            long count = i < failures.length ? failures[i] : 0;
+            if(stages[i].removed && count == 0) continue;
+            if(sb.length() > 0) sb.append("  ");
+            sb.append(stages[i].name).append('-').append(count);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Adds to a count in an array indexed like the filters, growing it if a filter was added since it was made.
+     * @return The array, or a longer copy of it
+     */
+    static long[] count(long[] counts, int index, long amount){
+        if(index >= counts.length) counts = Arrays.copyOf(counts, index + 1);
+        counts[index] += amount;
+        return counts;
+    }
+
+    @Override
+    public String toString(){
+        StringBuilder sb = new StringBuilder("TileFilterPipeline[");
+        Stage[] order = this.order;
+        for(int i = 0; i < order.length; ++i){
+            if(i > 0) sb.append(", ");
+            sb.append(order[i]);
+        }
+        return sb.append(']').toString();
+    }
+
+    /**
+     * A filter and its measurements
+     */
+    public static final class Stage {
+        private final String name;
+        private final TileFilter filter;
+        private final boolean builtIn;
+        /**
+         * Looked up once, as the lookup locks on Java 8
+         */
+        private final MetricsRegistry.Counter rejectionCounter;
+        private final int index;
+        /**
+         * Set once the filter is removed. Its index stays taken.
+         */
+        private volatile boolean removed;
+
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder rejections = new LongAdder();
+        private final LongAdder timedCalls = new LongAdder();
+        private final LongAdder timedNanos = new LongAdder();
+
+        // The measurements at the last reorder, and the estimates made from them. Guarded by the pipeline.
+        private long lastCalls, lastRejections, lastTimedCalls, lastTimedNanos;
+        private double cost = Double.NaN;
+        private double rejectionRate = Double.NaN;
+
+        private Stage(String name, TileFilter filter, int index, boolean builtIn){
+            this.name = name;
+            this.filter = filter;
+            this.index = index;
+            this.builtIn = builtIn;
+            rejectionCounter = CommonLibrary.metrics.counter("randomPos.rejected." + name);
+        }
+
+        private boolean test(int tileX, int tileY){
+            boolean accepted;
+            calls.increment();
+            if(ThreadLocalRandom.current().nextInt(timingInterval) == 0){
+                long start = System.nanoTime();
+                accepted = filter.accepts(tileX, tileY);
+                timedNanos.add(System.nanoTime() - start);
+                timedCalls.increment();
+            }else{
+                accepted = filter.accepts(tileX, tileY);
+            }
+            if(!accepted) rejections.increment();
+            return accepted;
+        }
+
+        private void estimate(){
+            long calls = this.calls.sum(), rejections = this.rejections.sum();
+            long timedCalls = this.timedCalls.sum(), timedNanos = this.timedNanos.sum();
+            if(calls > lastCalls){
+                double rate = (rejections - lastRejections) / (double)(calls - lastCalls);
+                rejectionRate = Double.isNaN(rejectionRate) ? rate : rejectionRate + smoothing * (rate - rejectionRate);
+            }
+            if(timedCalls > lastTimedCalls){
+                double nanos = (timedNanos - lastTimedNanos) / (double)(timedCalls - lastTimedCalls);
+                cost = Double.isNaN(cost) ? nanos : cost + smoothing * (nanos - cost);
+            }
+            lastCalls = calls;
+            lastRejections = rejections;
+            lastTimedCalls = timedCalls;
+            lastTimedNanos = timedNanos;
+        }
+
+        private void reset(){
+            calls.reset();
+            rejections.reset();
+            timedCalls.reset();
+            timedNanos.reset();
+            lastCalls = lastRejections = lastTimedCalls = lastTimedNanos = 0;
+            cost = rejectionRate = Double.NaN;
+        }
+
+        /**
+         * Returns the estimated nanoseconds it takes per tile it rejects, which the filters are sorted by.
+         * Returns 0 if it has not been measured yet.
+         */
+        public double getRank(){
+            if(Double.isNaN(cost) || Double.isNaN(rejectionRate)) return 0;
+            return cost / Math.max(rejectionRate, 1e-6);
+        }
+
+        public String getName(){
+            return name;
+        }
+
+        public TileFilter getFilter(){
+            return filter;
+        }
+
+        /**
+         * Returns the index check() returns for the tiles the filter rejects
+         */
+        public int getIndex(){
+            return index;
+        }
+
+        /**
+         * Returns the number of tiles the filter checked
+         */
+        public long getCalls(){
+            return calls.sum();
+        }
+
+        /**
+         * Returns the number of tiles the filter rejected
+         */
+        public long getRejections(){
+            return rejections.sum();
+        }
+
+        /**
+         * Returns the share of the tiles it checked the filter rejected, or 0 if it checked none
+         */
+        public double getRejectionRate(){
+            long calls = getCalls();
+            return calls == 0 ? 0 : getRejections() / (double)calls;
+        }
+
+        /**
+         * Returns the average time the filter took per tile, in nanoseconds, measured on a sample of the calls.
+         * Returns 0 if none were measured.
+         */
+        public double getAverageNanos(){
+            long timedCalls = this.timedCalls.sum();
+            return timedCalls == 0 ? 0 : timedNanos.sum() / (double)timedCalls;
+        }
+
+        @Override
+        public String toString(){
+            return String.format("%s[calls %d, rejected %.1f%%, %.0fns]",
+                    name, getCalls(), getRejectionRate() * 100, getAverageNanos());
+        }
+    }
+}
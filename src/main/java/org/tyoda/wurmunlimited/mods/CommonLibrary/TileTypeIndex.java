@@ -0,0 +1,345 @@
+package org.tyoda.wurmunlimited.mods.CommonLibrary;
+
+import com.wurmonline.mesh.Tiles;
+import com.wurmonline.server.Server;
+import com.wurmonline.server.zones.Zones;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntBinaryOperator;
+
+/**
+ * The tiles of every tile type, so a random position on a given terrain, like sand or rock,
+ * can be picked with a single draw instead of by rolling positions until one lands on it.
+ * The tiles of a type are kept in an int array, packed as y &lt;&lt; 16 | x.
+ * <p>
+ * The index is built in two passes over the map, both in parallel chunks of rows:
+ * the first counts the tiles of every type in every chunk, so the arrays can be allocated
+ * at their final size and every chunk knows where to write its tiles in the second pass.
+ * It does not notice changes to the terrain, so it has to be built again to see them.
+ * <p>
+ * Every indexed tile takes 4 bytes, so indexing every type of an 8192 map takes about 256 MiB,
+ * and of a 16384 map about 1 GiB. Pass the types that will be selected to build()
+ * to only index those.
+ */
+public final class TileTypeIndex {
+    /**
+     * Rows read per task when building in parallel
+     */
+    private static final int rowsPerTask = 64;
+    private static final int[] noTiles = new int[0];
+
+    private final int padding;
+    /**
+     * The range of tiles indexed, inclusive
+     */
+    private final int minTileX, maxTileX, minTileY, maxTileY;
+    /**
+     * Whether the tiles of a type are indexed, by the type id &amp; 0xFF
+     */
+    private final boolean[] indexed = new boolean[256];
+    /**
+     * The packed tiles of every type, indexed by the type id &amp; 0xFF
+     */
+    private final int[][] tiles = new int[256][];
+
+    /**
+     * @param types The types to index, or null to index every type
+     */
+    private TileTypeIndex(int padding, byte[] types, int tilesX, int tilesY, int metersX, int metersY){
+        if(padding < 0) {
+            throw new IllegalArgumentException("padding must not be negative.");
+        }
+        this.padding = padding;
+        if(types == null) {
+            Arrays.fill(indexed, true);
+        }else{
+            for(byte type : types)
+                indexed[type & 0xFF] = true;
+        }
+        // Only tiles that lie entirely within the padding, like the ones of SpawnIndex
+        minTileX = Math.max(1, (padding + 3) >> 2);
+        minTileY = Math.max(1, (padding + 3) >> 2);
+        maxTileX = Math.min(tilesX - 2, (metersX - padding - 4) >> 2);
+        maxTileY = Math.min(tilesY - 2, (metersY - padding - 4) >> 2);
+        if(maxTileX < minTileX || maxTileY < minTileY) {
+            throw new IllegalArgumentException("padding leaves no room on the map.");
+        }
+    }
+
+    /**
+     * Indexes the tiles of the surface mesh, using the common ForkJoinPool.
+     * This reads every tile of the surface mesh, so it should be done when the server
+     * has loaded, away from the server thread.
+     * @param padding The minimum distance of the positions from the map's borders, in meters.
+     * @return The index
+     */
+    public static TileTypeIndex build(int padding){
+        return build(padding, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Indexes the tiles of the surface mesh.
+     * @param padding The minimum distance of the positions from the map's borders, in meters.
+     * @param pool The pool the rows are read in
+     * @return The index
+     */
+    public static TileTypeIndex build(int padding, ForkJoinPool pool){
+        return build(padding, pool, (byte[])null);
+    }
+
+    /**
+     * Indexes the tiles of the given types of the surface mesh, using the common ForkJoinPool.
+     * The tiles of other types are skipped, which saves the memory they would take.
+     * @param padding The minimum distance of the positions from the map's borders, in meters.
+     * @param types The tile type ids to index, like Tiles.Tile.TILE_SAND.id
+     * @return The index
+     */
+    public static TileTypeIndex build(int padding, byte... types){
+        return build(padding, ForkJoinPool.commonPool(), types);
+    }
+
+    /**
+     * Indexes the tiles of the given types of the surface mesh.
+     * The tiles of other types are skipped, which saves the memory they would take.
+     * @param padding The minimum distance of the positions from the map's borders, in meters.
+     * @param pool The pool the rows are read in
+     * @param types The tile type ids to index, like Tiles.Tile.TILE_SAND.id, or null to index every type
+     * @return The index
+     */
+    public static TileTypeIndex build(int padding, ForkJoinPool pool, byte... types){
+        TileTypeIndex index = new TileTypeIndex(padding, types, Zones.worldTileSizeX, Zones.worldTileSizeY,
+                (int)Zones.worldMeterSizeX, (int)Zones.worldMeterSizeY);
+        index.fill((tileX, tileY) -> Server.surfaceMesh.getTile(tileX, tileY), pool);
+        return index;
+    }
+
+    /**
+     * Indexes the tiles of a map file, which does not need a running server.
+     * @param map The map file
+     * @param padding The minimum distance of the positions from the map's borders, in meters.
+     * @param pool The pool the rows are read in
+     * @return The index
+     */
+    public static TileTypeIndex build(MapFileReader map, int padding, ForkJoinPool pool){
+        return build(map, padding, pool, (byte[])null);
+    }
+
+    /**
+     * Indexes the tiles of the given types of a map file, which does not need a running server.
+     * The tiles of other types are skipped, which saves the memory they would take.
+     * @param map The map file
+     * @param padding The minimum distance of the positions from the map's borders, in meters.
+     * @param pool The pool the rows are read in
+     * @param types The tile type ids to index, like Tiles.Tile.TILE_SAND.id, or null to index every type
+     * @return The index
+     */
+    public static TileTypeIndex build(MapFileReader map, int padding, ForkJoinPool pool, byte... types){
+        // The same size in meters the server gives a map of this size
+        int meters = (map.getSize() - 1) << 2;
+        TileTypeIndex index = new TileTypeIndex(padding, types, map.getSize(), map.getSize(), meters, meters);
+        index.fill(map::getTile, pool);
+        return index;
+    }
+
+    private void fill(IntBinaryOperator source, ForkJoinPool pool){
+        int rows = maxTileY - minTileY + 1;
+        int chunks = (rows + rowsPerTask - 1) / rowsPerTask;
+        int[][] counts = new int[chunks][];
+        pool.invoke(new ChunkTask(source, counts, null, 0, chunks));
+
+        // Turn the counts of every chunk into the offsets it writes its tiles at
+        int[] totals = new int[256];
+        for(int[] chunk : counts){
+            for(int type = 0; type < 256; ++type){
+                int count = chunk[type];
+                chunk[type] = totals[type];
+                totals[type] += count;
+            }
+        }
+        for(int type = 0; type < 256; ++type)
+            tiles[type] = totals[type] == 0 ? noTiles : new int[totals[type]];
+        pool.invoke(new ChunkTask(source, null, counts, 0, chunks));
+    }
+
+    /**
+     * Counts the tiles of a range of chunks if counts is set, otherwise writes them at the offsets
+     */
+    private final class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final IntBinaryOperator source;
+        private final int[][] counts;
+        private final int[][] offsets;
+        private final int fromChunk;
+        private final int toChunk;
+
+        ChunkTask(IntBinaryOperator source, int[][] counts, int[][] offsets, int fromChunk, int toChunk){
+            this.source = source;
+            this.counts = counts;
+            this.offsets = offsets;
+            this.fromChunk = fromChunk;
+            this.toChunk = toChunk;
+        }
+
+        @Override
+        protected void compute(){
+            if(toChunk - fromChunk > 1){
+                int middle = (fromChunk + toChunk) >>> 1;
+                invokeAll(new ChunkTask(source, counts, offsets, fromChunk, middle),
+                          new ChunkTask(source, counts, offsets, middle, toChunk));
+                return;
+            }
+            int fromRow = minTileY + fromChunk * rowsPerTask;
+            int toRow = Math.min(maxTileY + 1, fromRow + rowsPerTask);
+            if(counts != null){
+                int[] chunk = new int[256];
+                for(int tileY = fromRow; tileY < toRow; ++tileY)
+                    for(int tileX = minTileX; tileX <= maxTileX; ++tileX){
+                        int type = type(tileX, tileY);
+                        if(indexed[type]) ++chunk[type];
+                    }
+                counts[fromChunk] = chunk;
+            }else{
+                int[] next = offsets[fromChunk];
+                for(int tileY = fromRow; tileY < toRow; ++tileY){
+                    for(int tileX = minTileX; tileX <= maxTileX; ++tileX){
+                        int type = type(tileX, tileY);
+                        if(indexed[type]) tiles[type][next[type]++] = tileY << 16 | tileX;
+                    }
+                }
+            }
+        }
+
+        private int type(int tileX, int tileY){
+            return Tiles.decodeType(source.applyAsInt(tileX, tileY)) & 0xFF;
+        }
+    }
+
+    /**
+     * Returns the number of tiles of the type, 0 if the type is not indexed
+     * @param type The tile type id, like Tiles.Tile.TILE_SAND.id
+     */
+    public int getCount(byte type){
+        return tiles[type & 0xFF].length;
+    }
+
+    /**
+     * Returns whether the tiles of the type were indexed
+     * @param type The tile type id, like Tiles.Tile.TILE_SAND.id
+     */
+    public boolean isIndexed(byte type){
+        return indexed[type & 0xFF];
+    }
+
+    /**
+     * Returns the minimum distance of the positions from the map's borders, in meters.
+     */
+    public int getPadding(){
+        return padding;
+    }
+
+    /**
+     * Makes a selection of tile types to draw random tiles from.
+     * Keep the selection to draw from the same types again.
+     * Types that are not indexed have no tiles to draw.
+     * @param types The tile type ids, like Tiles.Tile.TILE_SAND.id
+     * @return The selection
+     */
+    public Selection select(byte... types){
+        boolean[] selected = new boolean[256];
+        int[][] lists = new int[types.length][];
+        int count = 0;
+        for(byte type : types){
+            if(selected[type & 0xFF]) continue;
+            selected[type & 0xFF] = true;
+            if(tiles[type & 0xFF].length > 0) lists[count++] = tiles[type & 0xFF];
+        }
+        return new Selection(lists, count);
+    }
+
+    /**
+     * A set of tile types of the index, every tile of which is equally likely to be drawn.
+     * Drawing takes the same time however many tiles there are.
+     */
+    public static final class Selection {
+        private final int[][] lists;
+        /**
+         * cumulative[i] is the number of tiles in lists 0 to i
+         */
+        private final int[] cumulative;
+
+        private Selection(int[][] lists, int count){
+            this.lists = new int[count][];
+            cumulative = new int[count];
+            long total = 0;
+            for(int i = 0; i < count; ++i){
+                this.lists[i] = lists[i];
+                total += lists[i].length;
+                if(total > Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException("The selected types have too many tiles.");
+                }
+                cumulative[i] = (int)total;
+            }
+        }
+
+        /**
+         * Returns the number of tiles of the selected types
+         */
+        public int getCount(){
+            return cumulative.length == 0 ? 0 : cumulative[cumulative.length - 1];
+        }
+
+        /**
+         * Returns a random tile of the selected types, every tile being equally likely.
+         * @param random The RandomSource to roll the tile with.
+         * @return The tile packed with PackedPosition, or -1 if there are no tiles of the types.
+         */
+        public long getRandomTile(RandomSource random){
+            int total = getCount();
+            if(total == 0) return -1;
+            int n = random.nextInt(total);
+            // At most 256 types, so the search takes no longer for larger maps
+            int low = 0, high = cumulative.length - 1;
+            while(low < high){
+                int middle = (low + high) >>> 1;
+                if(cumulative[middle] > n) high = middle;
+                else low = middle + 1;
+            }
+            if(low > 0) n -= cumulative[low - 1];
+            int tile = lists[low][n];
+            return PackedPosition.pack(tile & 0xFFFF, tile >>> 16);
+        }
+
+        /**
+         * Returns a random position on a tile of the selected types, every tile being equally likely.
+         * The position is on a random whole meter within the tile, like the ones of WorldPosition2D.getRandomPos().
+         * @param random The RandomSource to roll the position with.
+         * @return A random position, or null if there are no tiles of the types.
+         */
+        public WorldPosition2D getRandomPos(RandomSource random){
+            long tile = getRandomTile(random);
+            if(tile < 0) return null;
+            return new WorldPosition2D(PackedPosition.tileToMeter(PackedPosition.tileX(tile)) + random.nextInt(4),
+                    PackedPosition.tileToMeter(PackedPosition.tileY(tile)) + random.nextInt(4));
+        }
+
+        /**
+         * Returns a random position on a tile of the selected types that also passes the checks
+         * of WorldPosition2D.getRandomPos(), so it is not next to water, on an altar or in a village.
+         * @param maxTries The maximum number of tiles drawn.
+         * @param random The RandomSource to roll the position with.
+         * @return A random position, or null if no suitable position was found.
+         */
+        public WorldPosition2D getRandomPos(int maxTries, RandomSource random){
+            for(int tries = 0; tries < maxTries; ++tries){
+                long tile = getRandomTile(random);
+                if(tile < 0) return null;
+                if(WorldPosition2D.checkTile(PackedPosition.tileX(tile), PackedPosition.tileY(tile)) == WorldPosition2D.tileEligible)
+                    return new WorldPosition2D(PackedPosition.tileToMeter(PackedPosition.tileX(tile)) + random.nextInt(4),
+                            PackedPosition.tileToMeter(PackedPosition.tileY(tile)) + random.nextInt(4));
+            }
+            return null;
+        }
+    }
+}
@@ -6,12 +6,34 @@ import com.wurmonline.server.behaviours.Terraforming;
 import com.wurmonline.server.villages.Villages;
 import com.wurmonline.server.zones.Zones;
 
+import java.util.ArrayList;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.Logger;
 
 public class WorldPosition2D {
+    /**
+     * @deprecated Use a RandomSource instead.
+     */
+    @Deprecated
     public static final Random random = CommonLibrary.random;
     public static final Logger logger = Logger.getLogger(WorldPosition2D.class.getName());
+    /*
+     * The results of checkTile(). The reasons a tile is not eligible double as indices.
+     */
+    static final int tileEligible = -1;
+    static final int tileWaterOrLava = 0;
+    static final int tileAltar = 1;
+    static final int tileVillage = 2;
+    /**
+     * The checks a tile has to pass for a random position to be put on it.
+     * Mods can add their own, like keeping the positions off roads.
+     */
+    public static final TileFilterPipeline tileFilters = createTileFilters();
+    private static final MetricsRegistry.Counter randomPosCalls = CommonLibrary.metrics.counter("randomPos.calls");
+    private static final MetricsRegistry.Counter randomPosTries = CommonLibrary.metrics.counter("randomPos.tries");
+    private static final MetricsRegistry.Counter randomPosFailures = CommonLibrary.metrics.counter("randomPos.failures");
+    private static final MetricsRegistry.Histogram randomPosNanos = CommonLibrary.metrics.histogram("randomPos.nanos");
     private int tileX = 0;
     private int tileY = 0;
     private float meterX = 0;
@@ -46,7 +68,7 @@ public class WorldPosition2D {
         tileX = x;
         tileY = y;
         meterX = x<<2;
-        meterY = x<<2;
+        meterY = y<<2;
     }
     /**
      * Sets the meterX, meterY to the given values, and tileX, tileY to a fourth of their values.
@@ -71,47 +93,116 @@ public class WorldPosition2D {
      *         position was found.
      */
     public static WorldPosition2D getRandomPos(int padding, int maxTries){
+        return getRandomPos(padding, maxTries, CommonLibrary.randomSource);
+    }
+
+    /**
+     * Generates a random position on the server.
+     * @param padding The minimum distance from the map's borders.
+     * @param maxTries The maximum number of times it tries to generate a random position.
+     * @param random The RandomSource to roll the positions with.
+     * @return A WorldPosition2D containing a random position. Returns null if no suitable
+     *         position was found.
+     */
+    public static WorldPosition2D getRandomPos(int padding, int maxTries, RandomSource random){
         // This code is mostly copied from
         // https://github.com/dmon82/TreasureHunting/blob/master/src/com/pveplands/treasurehunting/Treasuremap.java
+        long start = System.nanoTime();
         WorldPosition2D pos = new WorldPosition2D();
         int tries = 0;
-        boolean foundPos = false, isWaterOrLava;
+        boolean foundPos = false;
 
-        int waterCount = 0, altarCount = 0, villageCount = 0;
+        long[] failures = new long[tileFilters.size()];
 
         while (!foundPos && tries < maxTries) {
+            ++tries;
             pos.setMeterPos(
                     random.nextInt((int)Zones.worldMeterSizeX - padding * 2) + padding,
                     random.nextInt((int)Zones.worldMeterSizeY - padding * 2) + padding
             );
 
-            isWaterOrLava = false;
-
-            for (int x = pos.tileX-1; x <= (pos.tileX + 1) && !isWaterOrLava; ++x) {
-                for (int y = pos.tileY-1; y <= (pos.tileY + 1) && !isWaterOrLava; ++y) {
-                    int tile = Server.surfaceMesh.getTile(x, y);
-
-                    if (Terraforming.isTileUnderWater(tile, x, y, true)
-                            || Tiles.decodeType(tile) == Tiles.Tile.TILE_LAVA.id) {
-                        isWaterOrLava = true;
-                    }
-                }
-            }
-
-            if (isWaterOrLava) { ++waterCount; continue; }
-            if (Terraforming.isAltarBlocking(null, pos.tileX, pos.tileY)) { ++altarCount; continue; }
-            if (Villages.getVillageWithPerimeterAt(pos.tileX, pos.tileY, true)!=null){++villageCount;continue;}
+            int reason = checkTile(pos.tileX, pos.tileY);
+            if (reason != tileEligible) { failures = TileFilterPipeline.count(failures, reason, 1); continue; }
 
             foundPos = true;
         }
         if(!foundPos){
             logger.warning(
-                    String.format("Could not generate suitable random position. Failures were: Water/Lava-%d  Altar-%d  Village-%d",
-                            waterCount, altarCount, villageCount));
+                    "Could not generate suitable random position. Failures were: " + tileFilters.describe(failures));
             pos = null;
+            randomPosFailures.increment();
         }
+        randomPosCalls.increment();
+        randomPosTries.add(tries);
+        for(int i = 0; i < failures.length; ++i){
+            if(failures[i] > 0) tileFilters.getRejectionCounter(i).add(failures[i]);
+        }
+        randomPosNanos.recordNanosSince(start);
         return pos;
     }
+
+    /**
+     * Generates many random positions on the server at once, checking the candidates in parallel.
+     * See PositionBatch for keeping them without an object each.
+     * @param count The number of positions to generate.
+     * @param padding The minimum distance from the map's borders.
+     * @param maxTries The maximum number of candidates checked per position requested.
+     * @param unique Whether every position must be on a different tile.
+     * @return A list of the positions found, which may be fewer than count if the tries ran out.
+     */
+    public static ArrayList<WorldPosition2D> getRandomPositions(int count, int padding, int maxTries, boolean unique){
+        return PositionBatch.generate(count, padding, maxTries, unique, RandomSource.splittable(), ForkJoinPool.commonPool())
+                .toPositions();
+    }
+
+    private static TileFilterPipeline createTileFilters(){
+        TileFilterPipeline filters = new TileFilterPipeline();
+        filters.add("Water/Lava", (tileX, tileY) -> !isWaterOrLavaAround(tileX, tileY), true);
+        filters.add("Altar", (tileX, tileY) -> !Terraforming.isAltarBlocking(null, tileX, tileY), true);
+        filters.add("Village", (tileX, tileY) -> Villages.getVillageWithPerimeterAt(tileX, tileY, true) == null, true);
+        return filters;
+    }
+
+    /**
+     * Checks whether a random position may be put on the tile.
+     * @param tileX The x value of the tile position.
+     * @param tileY The y value of the tile position.
+     * @return tileEligible if it may, otherwise the index in tileFilters of the filter that
+     *         rejected it, like tileWaterOrLava, tileAltar or tileVillage.
+     */
+    static int checkTile(int tileX, int tileY){
+        return tileFilters.check(tileX, tileY);
+    }
+
+    /**
+     * Checks the tile with every filter but the one for water and lava, which looks
+     * at the surrounding tiles as well.
+     */
+    static int checkStructures(int tileX, int tileY){
+        return tileFilters.check(tileX, tileY, tileWaterOrLava);
+    }
+
+    /**
+     * Returns whether the tile or any of the tiles around it is under water or lava
+     */
+    private static boolean isWaterOrLavaAround(int tileX, int tileY){
+        for (int x = tileX-1; x <= tileX + 1; ++x) {
+            for (int y = tileY-1; y <= tileY + 1; ++y) {
+                if (isWaterOrLava(x, y)) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether the tile itself is under water or lava
+     */
+    static boolean isWaterOrLava(int tileX, int tileY){
+        int tile = Server.surfaceMesh.getTile(tileX, tileY);
+        return Terraforming.isTileUnderWater(tile, tileX, tileY, true)
+                || Tiles.decodeType(tile) == Tiles.Tile.TILE_LAVA.id;
+    }
+
     public int getTileX(){
         return this.tileX;
     }